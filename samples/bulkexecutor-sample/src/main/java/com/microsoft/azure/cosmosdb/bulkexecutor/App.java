@@ -28,7 +28,13 @@ import org.slf4j.LoggerFactory;
 import com.beust.jcommander.JCommander;
 import com.microsoft.azure.cosmosdb.bulkexecutor.bulkdelete.BulkDeleter;
 import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.BulkImporter;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.DatasetSnapshotGenerator;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.ShardedBulkImporter;
 import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.BulkUpdater;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.SnapshotDiffUpdater;
+import com.microsoft.azure.cosmosdb.bulkexecutor.orchestrator.BulkOrchestrator;
+import com.microsoft.azure.cosmosdb.bulkexecutor.deadletter.DeadLetterReplayer;
+import com.microsoft.azure.cosmosdb.bulkexecutor.workload.WorkloadRunner;
 
 public class App {
 
@@ -43,6 +49,11 @@ public class App {
 			BulkImporter bulkImporter = new BulkImporter();
 			bulkImporter.executeBulkImport(cfg);			
 		}
+		else if (cfg.getOperation().equalsIgnoreCase("shardedimport")) {
+
+			ShardedBulkImporter shardedBulkImporter = new ShardedBulkImporter();
+			shardedBulkImporter.executeShardedBulkImport(cfg);
+		}
 		else if (cfg.getOperation().equalsIgnoreCase("update")) {
 			
 			BulkUpdater bulkUpdater = new BulkUpdater();
@@ -57,6 +68,31 @@ public class App {
 			BulkDeleter bulkDeleter = new BulkDeleter();
 			bulkDeleter.executeBulkDelete(cfg);         
 		}
+		else if (cfg.getOperation().equalsIgnoreCase("diffupdate")) {
+
+			SnapshotDiffUpdater snapshotDiffUpdater = new SnapshotDiffUpdater();
+			snapshotDiffUpdater.executeSnapshotDiffUpdate(cfg);
+		}
+		else if (cfg.getOperation().equalsIgnoreCase("orchestrate")) {
+
+			BulkOrchestrator bulkOrchestrator = new BulkOrchestrator();
+			bulkOrchestrator.executeOrchestratedImport(cfg);
+		}
+		else if (cfg.getOperation().equalsIgnoreCase("workload")) {
+
+			WorkloadRunner workloadRunner = new WorkloadRunner();
+			workloadRunner.executeWorkload(cfg);
+		}
+		else if (cfg.getOperation().equalsIgnoreCase("generatesnapshot")) {
+
+			DatasetSnapshotGenerator datasetSnapshotGenerator = new DatasetSnapshotGenerator();
+			datasetSnapshotGenerator.executeGenerateSnapshot(cfg);
+		}
+		else if (cfg.getOperation().equalsIgnoreCase("replay")) {
+
+			DeadLetterReplayer deadLetterReplayer = new DeadLetterReplayer();
+			deadLetterReplayer.executeReplay(cfg);
+		}
 	}
 
 	private static CmdLineConfiguration parseCommandLineArgs(String[] args) {
@@ -73,6 +73,134 @@ public class CmdLineConfiguration {
     @Parameter(names = "-numberOfCheckpoints", description = "Number of checkpoints.")
     private int numberOfCheckpoints = 100;
     
+    @Parameter(names = "-targetCheckpointsPerSecond", description = "Rate at which checkpoints are started. Latencies are "
+    		+ "measured from the scheduled start of each checkpoint to correct for coordinated omission. 0 runs unpaced.")
+    private double targetCheckpointsPerSecond = 0;
+
+    @Parameter(names = "-latencyHistogramLog", description = "Path of an HdrHistogram log file to write latency histograms "
+    		+ "to after each checkpoint. An existing file is overwritten.")
+    private String latencyHistogramLog;
+
+    @Parameter(names = "-keyDistribution", description = "Distribution of partition key values of generated documents: "
+    		+ "uniform, partitions, zipfian or hotspot.")
+    private String keyDistribution = "uniform";
+
+    @Parameter(names = "-numberOfLogicalPartitions", description = "Number of logical partitions used by the partitions, "
+    		+ "zipfian and hotspot key distributions.")
+    private long numberOfLogicalPartitions = 1000;
+
+    @Parameter(names = "-zipfianConstant", description = "Skew of the zipfian key distribution, between 0 and 1 exclusive.")
+    private double zipfianConstant = 0.99;
+
+    @Parameter(names = "-hotspotDocumentFraction", description = "Fraction of documents going to hot partitions "
+    		+ "with the hotspot key distribution.")
+    private double hotspotDocumentFraction = 0.8;
+
+    @Parameter(names = "-hotspotPartitionFraction", description = "Fraction of logical partitions which are hot "
+    		+ "with the hotspot key distribution.")
+    private double hotspotPartitionFraction = 0.2;
+
+    @Parameter(names = "-snapshotFile", description = "File with one JSON document per line, refreshed into the collection "
+    		+ "by the diffupdate operation.")
+    private String snapshotFile;
+
+    @Parameter(names = "-diffIndexDirectory", description = "Directory of the index of document field hashes kept between "
+    		+ "runs of the diffupdate operation.")
+    private String diffIndexDirectory;
+
+    @Parameter(names = "-numberOfIndexShards", description = "Number of shards of the diffupdate index. Must stay the same "
+    		+ "between runs using the same index.")
+    private int numberOfIndexShards = 256;
+
+    @Parameter(names = "-manifest", description = "File listing the collections bulk imported by the orchestrate operation, "
+    		+ "one databaseId,collectionId[,numberOfCheckpoints] per line.")
+    private String manifest;
+
+    @Parameter(names = "-orchestratorWorkers", description = "Number of checkpoints the orchestrate operation runs at a time "
+    		+ "across all collections.")
+    private int orchestratorWorkers = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "-maxActiveCollections", description = "Maximum number of collections the orchestrate operation has "
+    		+ "in progress at a time.")
+    private int maxActiveCollections = 16;
+
+    @Parameter(names = "-leaseDirectory", description = "Directory shared by the workers of the shardedimport operation, "
+    		+ "holding checkpoint leases and completion markers.")
+    private String leaseDirectory;
+
+    @Parameter(names = "-leaseDurationInSeconds", description = "Time after which a checkpoint leased by a worker which stopped "
+    		+ "renewing it is taken over by another worker.")
+    private int leaseDurationInSeconds = 60;
+
+    @Parameter(names = "-workerId", description = "Unique id of this worker of the shardedimport operation. "
+    		+ "Defaults to the process id and host name.")
+    private String workerId;
+
+    @Parameter(names = "-maxCheckpointAttempts", description = "Number of times the shardedimport operation attempts a "
+    		+ "checkpoint before recording it as failed, and spilling its failed documents to -deadLetterDirectory if set.")
+    private int maxCheckpointAttempts = 5;
+
+    @Parameter(names = "-checkpointRetryDelayInSeconds", description = "Time before a checkpoint which failed is attempted "
+    		+ "again, doubling with each attempt up to -leaseDurationInSeconds.")
+    private int checkpointRetryDelayInSeconds = 5;
+
+    @Parameter(names = "-workloadConfig", description = "Properties file describing the mix of operations, key selection "
+    		+ "and duration of the workload operation. If not specified, default settings are used.")
+    private String workloadConfig;
+    
+    @Parameter(names = "-deadLetterDirectory", description = "Directory to spill documents and update items which failed "
+    		+ "to import or update to, so that a run carries on past failures. Also the directory the replay operation reads from.")
+    private String deadLetterDirectory;
+    
+    @Parameter(names = "-deadLetterSegmentSizeInMB", description = "Size after which a new dead letter segment file is started.")
+    private int deadLetterSegmentSizeInMB = 64;
+    
+    @Parameter(names = "-warmupBatches", description = "Number of discardable batches to run before measurement starts. "
+    		+ "Warm-up figures are reported separately from the steady state ones.")
+    private int warmupBatches = 0;
+    
+    @Parameter(names = "-warmupDurationInSeconds", description = "Minimum time to run discardable batches for before "
+    		+ "measurement starts.")
+    private int warmupDurationInSeconds = 0;
+    
+    @Parameter(names = "-inputFile", description = "NDJSON file to import instead of generated documents, plain or "
+    		+ "compressed with gzip or zstd. Checkpoints run until the file is exhausted.")
+    private String inputFile;
+    
+    @Parameter(names = "-inputParallelism", description = "Number of threads decompressing the input file.")
+    private int inputParallelism = Runtime.getRuntime().availableProcessors();
+    
+    @Parameter(names = "-inputReadAheadDocuments", description = "Maximum number of decompressed documents waiting to "
+    		+ "be imported.")
+    private int inputReadAheadDocuments = 200000;
+    
+    @Parameter(names = "-delimitedFile", description = "CSV or TSV file to import instead of generated documents. "
+    		+ "Checkpoints run until the file is exhausted.")
+    private String delimitedFile;
+    
+    @Parameter(names = "-delimiter", description = "Field delimiter of the delimited file, a single character or tab.")
+    private String delimiter = ",";
+    
+    @Parameter(names = "-delimitedFileHasHeader", description = "Whether the first row of the delimited file holds the "
+    		+ "column names. If false, columns are referred to by their index.", arity = 1)
+    private boolean delimitedFileHasHeader = true;
+    
+    @Parameter(names = "-idColumn", description = "Column of the delimited file holding the document id.")
+    private String idColumn = "id";
+    
+    @Parameter(names = "-partitionKeyColumn", description = "Column of the delimited file holding the partition key, "
+    		+ "optionally followed by :long, :double or :boolean. Defaults to the column named like the partition key.")
+    private String partitionKeyColumn;
+    
+    @Parameter(names = "-columnMapping", description = "Mapping of the other columns of the delimited file to document "
+    		+ "properties, as column[=property][:type] entries separated by commas. Types are string, long, double, "
+    		+ "boolean and json. If not specified, all columns are mapped as strings named after their header.")
+    private String columnMapping;
+    
+    @Parameter(names = "-datasetSnapshot", description = "Dataset snapshot file written by the generatesnapshot operation. "
+    		+ "Import, update and delete read their documents and keys from it instead of generating them.")
+    private String datasetSnapshot;
+    
     @Parameter(names = {"-h", "-help", "--help"}, description = "Help", help = true)
     private boolean help = false;
 
@@ -100,6 +228,138 @@ public class CmdLineConfiguration {
         return numberOfDocumentsForEachCheckpoint;
     }
 
+    public double getTargetCheckpointsPerSecond() {
+        return targetCheckpointsPerSecond;
+    }
+
+    public String getLatencyHistogramLog() {
+        return latencyHistogramLog;
+    }
+
+    public String getKeyDistribution() {
+        return keyDistribution;
+    }
+
+    public long getNumberOfLogicalPartitions() {
+        return numberOfLogicalPartitions;
+    }
+
+    public double getZipfianConstant() {
+        return zipfianConstant;
+    }
+
+    public double getHotspotDocumentFraction() {
+        return hotspotDocumentFraction;
+    }
+
+    public double getHotspotPartitionFraction() {
+        return hotspotPartitionFraction;
+    }
+
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public String getDiffIndexDirectory() {
+        return diffIndexDirectory;
+    }
+
+    public int getNumberOfIndexShards() {
+        return numberOfIndexShards;
+    }
+
+    public String getManifest() {
+        return manifest;
+    }
+
+    public int getOrchestratorWorkers() {
+        return orchestratorWorkers;
+    }
+
+    public int getMaxActiveCollections() {
+        return maxActiveCollections;
+    }
+
+    public String getLeaseDirectory() {
+        return leaseDirectory;
+    }
+
+    public int getLeaseDurationInSeconds() {
+        return leaseDurationInSeconds;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public int getMaxCheckpointAttempts() {
+        return maxCheckpointAttempts;
+    }
+
+    public int getCheckpointRetryDelayInSeconds() {
+        return checkpointRetryDelayInSeconds;
+    }
+
+    public String getWorkloadConfig() {
+        return workloadConfig;
+    }
+
+    public String getDeadLetterDirectory() {
+        return deadLetterDirectory;
+    }
+
+    public int getDeadLetterSegmentSizeInMB() {
+        return deadLetterSegmentSizeInMB;
+    }
+
+    public int getWarmupBatches() {
+        return warmupBatches;
+    }
+
+    public int getWarmupDurationInSeconds() {
+        return warmupDurationInSeconds;
+    }
+
+    public String getInputFile() {
+        return inputFile;
+    }
+
+    public int getInputParallelism() {
+        return inputParallelism;
+    }
+
+    public int getInputReadAheadDocuments() {
+        return inputReadAheadDocuments;
+    }
+
+    public String getDelimitedFile() {
+        return delimitedFile;
+    }
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    public boolean getDelimitedFileHasHeader() {
+        return delimitedFileHasHeader;
+    }
+
+    public String getIdColumn() {
+        return idColumn;
+    }
+
+    public String getPartitionKeyColumn() {
+        return partitionKeyColumn;
+    }
+
+    public String getColumnMapping() {
+        return columnMapping;
+    }
+
+    public String getDatasetSnapshot() {
+        return datasetSnapshot;
+    }
+
     public String getServiceEndpoint() {
         return serviceEndpoint;
     }
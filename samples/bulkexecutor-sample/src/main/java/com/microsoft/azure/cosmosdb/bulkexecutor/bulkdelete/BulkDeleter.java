@@ -23,6 +23,7 @@
 package com.microsoft.azure.cosmosdb.bulkexecutor.bulkdelete;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang3.tuple.MutablePair;
@@ -33,11 +34,22 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Stopwatch;
 import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
 import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.DataMigrationDocumentSource;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.DatasetSnapshot;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistribution;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistributions;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.CheckpointEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.DocumentBuildEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.ExecutorCallEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.HistogramLog;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.LatencyRecorder;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.WarmupPhase;
 import com.microsoft.azure.documentdb.DocumentClient;
 import com.microsoft.azure.documentdb.DocumentCollection;
 import com.microsoft.azure.documentdb.PartitionKey;
 import com.microsoft.azure.documentdb.RequestOptions;
 import com.microsoft.azure.documentdb.bulkexecutor.BulkDeleteResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
 import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
 import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor.Builder;
 
@@ -79,23 +91,104 @@ public class BulkDeleter {
             Builder bulkExecutorBuilder = DocumentBulkExecutor.builder().from(client, cfg.getDatabaseId(),
                     cfg.getCollectionId(), collection.getPartitionKey(), offerThroughput);
 
+            WarmupPhase warmupPhase = new WarmupPhase("deleteAll", cfg.getWarmupBatches(),
+                    cfg.getWarmupDurationInSeconds());
+            Stopwatch initializationWatch = Stopwatch.createStarted();
+
             // Instantiate bulk executor
-            try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build()) {
+            try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build();
+                    HistogramLog histogramLog = HistogramLog.openIfSpecified(cfg.getLatencyHistogramLog());
+                    DatasetSnapshot datasetSnapshot = DatasetSnapshot.openIfSpecified(cfg.getDatasetSnapshot())) {
 
                 // Set retries to 0 to pass control to bulk executor
                 client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(0);
                 client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(0);
+                warmupPhase.setInitializationTime(initializationWatch.elapsed().toMillis());
+
+                KeyDistribution keyDistribution = KeyDistributions.fromConfiguration(cfg);
+
+                // Warm up by upserting documents with ids reserved for warm-up and deleting them again, so that
+                // documents of the collection are never touched. Only the deleteAll calls count towards the warm-up
+                // figures.
+                while (warmupPhase.nextBatch()) {
+                    long warmupPrefix = (long) warmupPhase.getBatchIndex()
+                            * cfg.getNumberOfDocumentsForEachCheckpoint();
+                    Collection<String> documents = DataMigrationDocumentSource.loadDocuments(
+                            cfg.getNumberOfDocumentsForEachCheckpoint(), collection.getPartitionKey(), warmupPrefix,
+                            keyDistribution, DataMigrationDocumentSource.WARMUP_ID_PREFIX);
+                    BulkImportResponse bulkImportResponse = bulkExecutor.importAll(documents, true, true, null);
+
+                    List<Pair<String, String>> warmupPkIdPairs = new ArrayList<>(documents.size());
+                    for (long id = warmupPrefix; id < warmupPrefix + documents.size(); id++) {
+                        warmupPkIdPairs.add(new MutablePair<>(keyDistribution.partitionKeyFor(id),
+                                DataMigrationDocumentSource.WARMUP_ID_PREFIX + id));
+                    }
+
+                    long warmupStartTime = System.nanoTime();
+                    BulkDeleteResponse bulkDeleteResponse = bulkExecutor.deleteAll(warmupPkIdPairs);
+                    warmupPhase.record(warmupStartTime, bulkDeleteResponse.getNumberOfDocumentsDeleted(),
+                            bulkDeleteResponse.getTotalRequestUnitsConsumed());
+
+                    if (bulkDeleteResponse.getNumberOfDocumentsDeleted()
+                            < bulkImportResponse.getNumberOfDocumentsImported()) {
+                        throw new IllegalStateException("warm-up left "
+                                + (bulkImportResponse.getNumberOfDocumentsImported()
+                                        - bulkDeleteResponse.getNumberOfDocumentsDeleted())
+                                + " documents with ids starting with " + DataMigrationDocumentSource.WARMUP_ID_PREFIX
+                                + " in the collection, errors: " + bulkDeleteResponse.getErrors());
+                    }
+                }
+
+                CheckpointEvent checkpointEvent = new CheckpointEvent("delete", 0);
+                checkpointEvent.begin();
+
                 int numberOfDocumentsToDeleteInBulk = cfg.getNumberOfDocumentsForEachCheckpoint();
-                List<Pair<String, String>> pkIdPairsToDelete = getOneCheckpointOfDocumentsToDelete(numberOfDocumentsToDeleteInBulk);
+                DocumentBuildEvent documentBuildEvent = new DocumentBuildEvent("delete");
+                documentBuildEvent.begin();
+                List<Pair<String, String>> pkIdPairsToDelete;
+                if (datasetSnapshot != null) {
+                    datasetSnapshot.checkHolds(1, numberOfDocumentsToDeleteInBulk);
+                    pkIdPairsToDelete = datasetSnapshot.loadPartitionKeyIdPairs(0);
+                } else {
+                    pkIdPairsToDelete = getOneCheckpointOfDocumentsToDelete(numberOfDocumentsToDeleteInBulk,
+                            keyDistribution);
+                }
+                documentBuildEvent.setDocumentCount(pkIdPairsToDelete.size());
+                documentBuildEvent.commit();
                 
+                LatencyRecorder executorCallLatency = new LatencyRecorder("deleteAll");
+
                 Stopwatch totalWatch = Stopwatch.createUnstarted();
                 totalWatch.start();
+                ExecutorCallEvent executorCallEvent = new ExecutorCallEvent("deleteAll", pkIdPairsToDelete.size());
+                executorCallEvent.begin();
+                long executorCallStartTime = System.nanoTime();
                 BulkDeleteResponse bulkDeleteResponse = bulkExecutor.deleteAll(pkIdPairsToDelete);
+                executorCallLatency.recordSince(executorCallStartTime);
+                executorCallEvent.setResult(bulkDeleteResponse.getNumberOfDocumentsDeleted(),
+                        bulkDeleteResponse.getTotalRequestUnitsConsumed());
+                executorCallEvent.commit();
                 totalWatch.stop();
+
+                checkpointEvent.setDocumentCount(pkIdPairsToDelete.size());
+                checkpointEvent.commit();
+
+                if (histogramLog != null) {
+                    histogramLog.append(executorCallLatency);
+                }
                 
+                if (warmupPhase.isEnabled()) {
+                    System.out.println(
+                            "##########################################################################################");
+                    warmupPhase.print();
+                }
+
                 // Print statistics for bulk delete operation             
                 System.out.println(
                         "##########################################################################################");
+                if (warmupPhase.isEnabled()) {
+                    System.out.println("Steady state, excluding warm-up:");
+                }
                 System.out.println("Number of documents deleted: "
                                  + bulkDeleteResponse.getNumberOfDocumentsDeleted());
                 System.out.println("Time taken to delete documents specified by the query: "
@@ -109,6 +202,7 @@ public class BulkDeleter {
                 System.out.println("Average #Deletes/second in this checkpoint: "
                         + bulkDeleteResponse.getNumberOfDocumentsDeleted()
                                 / (0.001 * bulkDeleteResponse.getTotalTimeTaken().toMillis()));
+                executorCallLatency.print();
                 System.out.println(
                         "##########################################################################################");
                 
@@ -116,11 +210,13 @@ public class BulkDeleter {
         }
     }
     
-    private List<Pair<String, String>> getOneCheckpointOfDocumentsToDelete(int numberOfDocumentsToDeleteInBulk) {
+    private List<Pair<String, String>> getOneCheckpointOfDocumentsToDelete(int numberOfDocumentsToDeleteInBulk,
+            KeyDistribution keyDistribution) {
         List<Pair<String, String>> pkIdPairsToDelete = new ArrayList<>();
         
+        // Derive partition key values the same way BulkImporter generated them
         for (int i=0; i<numberOfDocumentsToDeleteInBulk; i++) {
-            pkIdPairsToDelete.add(new MutablePair<String, String>(Integer.toString(i), Integer.toString(i)));
+            pkIdPairsToDelete.add(new MutablePair<String, String>(keyDistribution.partitionKeyFor(i), Integer.toString(i)));
         }
         
         return pkIdPairsToDelete;
@@ -22,19 +22,35 @@
  */
 package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.microsoft.azure.documentdb.DocumentClient;
 import com.microsoft.azure.documentdb.DocumentCollection;
 import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkDeleteResponse;
 import com.microsoft.azure.documentdb.bulkexecutor.BulkImportFailure;
 import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
 import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
 import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.deadletter.DeadLetterWriter;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.BulkFailureEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.CheckpointEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.ExecutorCallEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.HistogramLog;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.LatencyRecorder;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.Pacer;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.WarmupPhase;
 import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor.Builder;
 
 public class BulkImporter {
@@ -68,35 +84,121 @@ public class BulkImporter {
 			Builder bulkExecutorBuilder = DocumentBulkExecutor.builder().from(client, cfg.getDatabaseId(),
 					cfg.getCollectionId(), collection.getPartitionKey(), offerThroughput);
 
+			WarmupPhase warmupPhase = new WarmupPhase("importAll", cfg.getWarmupBatches(),
+					cfg.getWarmupDurationInSeconds());
+			Stopwatch initializationWatch = Stopwatch.createStarted();
+
 			// Instantiate bulk executor
-			try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build()) {
+			try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build();
+					HistogramLog histogramLog = HistogramLog.openIfSpecified(cfg.getLatencyHistogramLog());
+					DeadLetterWriter deadLetterWriter = DeadLetterWriter.openIfSpecified(cfg.getDeadLetterDirectory(),
+							cfg.getDeadLetterSegmentSizeInMB());
+					ParallelDocumentSource documentSource = openDocumentSource(cfg);
+					DatasetSnapshot datasetSnapshot = DatasetSnapshot.openIfSpecified(cfg.getDatasetSnapshot())) {
 
 				// Set retries to 0 to pass control to bulk executor
 				client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(0);
 				client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(0);
+				warmupPhase.setInitializationTime(initializationWatch.elapsed().toMillis());
 
 				Stopwatch totalWatch = Stopwatch.createUnstarted();
 
 				double totalRequestCharge = 0;
 				long totalTimeInMillis = 0;
 				long totalNumberOfDocumentsImported = 0;
+				long totalNumberOfDocumentsDeadLettered = 0;
+
+				KeyDistribution keyDistribution = KeyDistributions.fromConfiguration(cfg);
+				if (datasetSnapshot != null) {
+					datasetSnapshot.checkHolds(cfg.getNumberOfCheckpoints(), cfg.getNumberOfDocumentsForEachCheckpoint());
+				}
+
+				// Warm up with upserts of generated documents, then delete them so that the measured run starts from the
+				// same collection state. Their ids are reserved for warm-up, so that documents of the collection or of
+				// an input file, which may be a real migration target, are never overwritten or deleted.
+				List<Pair<String, String>> warmupPkIdPairs = new ArrayList<>();
+				long numberOfWarmupDocumentsImported = 0;
+				while (warmupPhase.nextBatch()) {
+					long warmupPrefix = (long) warmupPhase.getBatchIndex() * cfg.getNumberOfDocumentsForEachCheckpoint();
+					Collection<String> documents = DataMigrationDocumentSource.loadDocuments(
+							cfg.getNumberOfDocumentsForEachCheckpoint(), collection.getPartitionKey(), warmupPrefix, keyDistribution,
+							DataMigrationDocumentSource.WARMUP_ID_PREFIX);
+
+					long warmupStartTime = System.nanoTime();
+					BulkImportResponse bulkImportResponse = bulkExecutor.importAll(documents, true, true, null);
+					warmupPhase.record(warmupStartTime, bulkImportResponse.getNumberOfDocumentsImported(),
+							bulkImportResponse.getTotalRequestUnitsConsumed());
+					numberOfWarmupDocumentsImported += bulkImportResponse.getNumberOfDocumentsImported();
+
+					for (long id = warmupPrefix; id < warmupPrefix + documents.size(); id++) {
+						warmupPkIdPairs.add(new MutablePair<>(keyDistribution.partitionKeyFor(id),
+								DataMigrationDocumentSource.WARMUP_ID_PREFIX + id));
+					}
+				}
+				if (!warmupPkIdPairs.isEmpty()) {
+					BulkDeleteResponse bulkDeleteResponse = bulkExecutor.deleteAll(warmupPkIdPairs);
+					if (bulkDeleteResponse.getNumberOfDocumentsDeleted() < numberOfWarmupDocumentsImported) {
+						throw new IllegalStateException("warm-up left "
+								+ (numberOfWarmupDocumentsImported - bulkDeleteResponse.getNumberOfDocumentsDeleted())
+								+ " documents with ids starting with " + DataMigrationDocumentSource.WARMUP_ID_PREFIX
+								+ " in the collection, errors: " + bulkDeleteResponse.getErrors());
+					}
+				}
+
+				// Executor call latency is the service time of importAll, checkpoint latency also includes document
+				// generation and, when paced, any delay behind the checkpoint's scheduled start
+				LatencyRecorder executorCallLatency = new LatencyRecorder("importAll");
+				LatencyRecorder checkpointLatency = new LatencyRecorder("checkpoint");
+				Pacer pacer = new Pacer(cfg.getTargetCheckpointsPerSecond());
 
-				for (int i = 0; i < cfg.getNumberOfCheckpoints(); i++) {
+				// With an input or delimited file, checkpoints run until the file is exhausted
+				for (int i = 0; documentSource != null || i < cfg.getNumberOfCheckpoints(); i++) {
 
-					// Generate documents to import				
-					long prefix = i * cfg.getNumberOfDocumentsForEachCheckpoint();
-					
-					Collection<String> documents = DataMigrationDocumentSource
-							.loadDocuments(cfg.getNumberOfDocumentsForEachCheckpoint(), collection.getPartitionKey(), prefix);
+					long checkpointStartTime = pacer.acquire();
 
-					if (documents.size() != cfg.getNumberOfDocumentsForEachCheckpoint()) {
-						throw new RuntimeException("Not enough documents generated");
+					CheckpointEvent checkpointEvent = new CheckpointEvent("import", i);
+					checkpointEvent.begin();
+
+					Collection<String> documents;
+					if (documentSource != null) {
+						// Read documents to import, the last checkpoint may be smaller
+						documents = documentSource.nextBatch(cfg.getNumberOfDocumentsForEachCheckpoint());
+						if (documents.isEmpty()) {
+							break;
+						}
+					} else if (datasetSnapshot != null) {
+						documents = datasetSnapshot.loadDocuments(i);
+					} else {
+						// Generate documents to import				
+						long prefix = i * cfg.getNumberOfDocumentsForEachCheckpoint();
+						
+						documents = DataMigrationDocumentSource
+								.loadDocuments(cfg.getNumberOfDocumentsForEachCheckpoint(), collection.getPartitionKey(), prefix, keyDistribution);
+
+						if (documents.size() != cfg.getNumberOfDocumentsForEachCheckpoint()) {
+							throw new RuntimeException("Not enough documents generated");
+						}
 					}
 
 					// Execute bulk import API				
 					totalWatch.start();
+					ExecutorCallEvent executorCallEvent = new ExecutorCallEvent("importAll", documents.size());
+					executorCallEvent.begin();
+					long executorCallStartTime = System.nanoTime();
 					BulkImportResponse bulkImportResponse = bulkExecutor.importAll(documents, false, true, null);
+					executorCallLatency.recordSince(executorCallStartTime);
+					executorCallEvent.setResult(bulkImportResponse.getNumberOfDocumentsImported(),
+							bulkImportResponse.getTotalRequestUnitsConsumed());
+					executorCallEvent.commit();
 					totalWatch.stop();
+					checkpointLatency.recordSince(checkpointStartTime);
+
+					checkpointEvent.setDocumentCount(documents.size());
+					checkpointEvent.commit();
+
+					if (histogramLog != null) {
+						histogramLog.append(executorCallLatency, checkpointLatency);
+					}
 
 					// Print statistics for this checkpoint				
 					System.out.println(
@@ -124,34 +226,73 @@ public class BulkImporter {
 							"##########################################################################################");
 
 					// Check the number of imported documents to ensure everything is successfully imported
-					if (bulkImportResponse.getNumberOfDocumentsImported() != cfg.getNumberOfDocumentsForEachCheckpoint()) {
-						System.err.println(
-								"Some documents failed to get inserted in this checkpoint. This checkpoint has to get retried with upsert enabled");
+					if (bulkImportResponse.getNumberOfDocumentsImported() != documents.size()) {
+						if (deadLetterWriter == null) {
+							System.err.println(
+									"Some documents failed to get inserted in this checkpoint. This checkpoint has to get retried with upsert enabled");
+						}
 						
 						System.out.println("Number of bulk import failures = " + bulkImportResponse.getFailedImports().size());
 						for (BulkImportFailure eachBulkImportFailure : bulkImportResponse.getFailedImports()) {
+						    new BulkFailureEvent("import", i, eachBulkImportFailure.getBulkImportFailureException().getClass(),
+						            eachBulkImportFailure.getDocumentsFailedToImport().size()).commit();
 						    System.out.println(
 						        "Number of failures corresponding to exception of type: " + 
 						        eachBulkImportFailure.getBulkImportFailureException().getClass().getName() + 
 						        " = " + 
 						        eachBulkImportFailure.getDocumentsFailedToImport().size());
 						}
-						break;
+
+						// Without a dead letter directory the failed documents are lost, so stop here to let the
+						// checkpoint be retried. With one, spill them for a later replay and carry on.
+						if (deadLetterWriter == null) {
+							break;
+						}
+						int numberOfDocumentsDeadLettered = deadLetterWriter.append(bulkImportResponse, i);
+						totalNumberOfDocumentsDeadLettered += numberOfDocumentsDeadLettered;
+						System.out.println("Number of documents written to dead letter directory: "
+								+ numberOfDocumentsDeadLettered);
+
+						// Documents which already exist are neither imported nor reported as failed when upsert is
+						// disabled. They cannot be told apart from imported ones, so stop as without a dead letter
+						// directory.
+						long numberOfDocumentsUnaccounted = documents.size()
+								- bulkImportResponse.getNumberOfDocumentsImported() - numberOfDocumentsDeadLettered;
+						if (numberOfDocumentsUnaccounted != 0) {
+							System.err.println(numberOfDocumentsUnaccounted
+									+ " documents were neither inserted nor reported as failed in this checkpoint. This checkpoint has to get retried with upsert enabled");
+							break;
+						}
 					}
 				}
 
+				if (warmupPhase.isEnabled()) {
+					System.out.println(
+							"##########################################################################################");
+					warmupPhase.print();
+				}
+
 				// Print average statistics across checkpoints			
 				System.out.println(
 						"##########################################################################################");
+				if (warmupPhase.isEnabled()) {
+					System.out.println("Steady state, excluding warm-up:");
+				}
 				System.out.println(
 						"Total import time in milli seconds measured by stopWatch: " + totalWatch.elapsed().toMillis());
 				System.out.println("Total import time in milli seconds measured by api : " + totalTimeInMillis);
 				System.out.println("Total Number of documents inserted " + totalNumberOfDocumentsImported);
+				if (deadLetterWriter != null) {
+					System.out.println("Total Number of documents written to dead letter directory: "
+							+ totalNumberOfDocumentsDeadLettered);
+				}
 				System.out.println("Total request unit consumed: " + totalRequestCharge);
 				System.out.println(
 						"Average RUs/second:" + totalRequestCharge / (totalWatch.elapsed().toMillis() * 0.001));
 				System.out.println("Average #Inserts/second: "
 						+ totalNumberOfDocumentsImported / (totalWatch.elapsed().toMillis() * 0.001));
+				executorCallLatency.print();
+				checkpointLatency.print();
 				
 				// Close BulkExecutor instance to release internal resources.
 				bulkExecutor.close();
@@ -161,4 +302,18 @@ public class BulkImporter {
 			client.close();
 		}
 	}
-}
\ No newline at end of file
+
+	private static ParallelDocumentSource openDocumentSource(CmdLineConfiguration cfg) throws IOException {
+		Preconditions.checkArgument(cfg.getInputFile() == null || cfg.getDelimitedFile() == null,
+				"-inputFile and -delimitedFile cannot be used together");
+		Preconditions.checkArgument(cfg.getDatasetSnapshot() == null
+				|| (cfg.getInputFile() == null && cfg.getDelimitedFile() == null),
+				"-datasetSnapshot cannot be used together with -inputFile or -delimitedFile");
+
+		if (cfg.getDelimitedFile() != null) {
+			return DelimitedDocumentSource.openIfSpecified(cfg);
+		}
+		return CompressedDocumentSource.openIfSpecified(cfg.getInputFile(), cfg.getInputParallelism(),
+				cfg.getInputReadAheadDocuments());
+	}
+}
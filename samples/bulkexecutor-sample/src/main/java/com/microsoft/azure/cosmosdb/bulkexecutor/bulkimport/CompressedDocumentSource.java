@@ -0,0 +1,339 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Reads the documents of a plain, gzip or zstd compressed NDJSON file, decompressing it on several threads.
+ * 
+ * The codec is detected from the first bytes of the file. The file is cut into segments which are decompressed in
+ * parallel: plain files at arbitrary offsets, gzip files at member boundaries and zstd files at frame boundaries. A
+ * single member gzip or single frame zstd file has one segment only, and so decompresses on one thread. Documents are
+ * handed out in batches through a bounded read-ahead queue, in no particular order. Lines cut in two by a segment
+ * boundary are joined once all segments are done.
+ * 
+ * Gzip segments start at offsets which look like member headers. A false match fails to inflate and is rejected, and
+ * the segment before it carries on past it instead. A segment stops where its chain of members lands exactly on the
+ * start of the next segment, which is then known to be a real member; if that start was rejected, or is rejected later,
+ * the member is corrupt and its error is reported rather than the member dropped. Neither segment waits for the other.
+ * The documents of the first member of a segment are held back until that member has passed its CRC check, so
+ * documents are only handed out from verified members.
+ */
+public class CompressedDocumentSource extends ParallelDocumentSource {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(CompressedDocumentSource.class);
+
+    private static final int SEGMENTS_PER_THREAD = 4;
+    private static final long GZIP_HEADER_SEARCH_LIMIT = 16 * 1024 * 1024;
+
+    private enum Codec {
+        PLAIN, GZIP, ZSTD
+    }
+
+    private final Path file;
+
+    // Fragments of the lines cut by segment boundaries, null for segments which turned out not to start at a boundary
+    private DocumentLineSink[] segmentSinks;
+
+    // For gzip files, whether each segment start was rejected or landed on by the segment before it
+    private GzipSegmentStart[] gzipSegmentStarts;
+
+    /**
+     * Opens a document source, or returns null if no file is specified.
+     * 
+     * @param file The NDJSON file, may be null
+     * @param parallelism The number of decompression threads
+     * @param readAheadDocuments The maximum number of decompressed documents waiting to be imported
+     * @return The document source, or null
+     * @throws IOException if the file cannot be read
+     */
+    public static CompressedDocumentSource openIfSpecified(String file, int parallelism, int readAheadDocuments)
+            throws IOException {
+        return file == null ? null : new CompressedDocumentSource(Paths.get(file), parallelism, readAheadDocuments);
+    }
+
+    public CompressedDocumentSource(Path file, int parallelism, int readAheadDocuments) throws IOException {
+        super("decompressor", parallelism, readAheadDocuments);
+        this.file = file;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Codec codec = detectCodec(channel);
+            int numberOfSegments = parallelism * SEGMENTS_PER_THREAD;
+            switch (codec) {
+            case GZIP:
+                startGzipSegments(channel, numberOfSegments);
+                break;
+            case ZSTD:
+                startZstdSegments(channel, numberOfSegments);
+                break;
+            default:
+                startPlainSegments(channel.size(), numberOfSegments);
+                break;
+            }
+            LOGGER.info("Reading {} as {} in {} segments on {} threads", file, codec, segmentSinks.length, parallelism);
+        }
+    }
+
+    private static Codec detectCodec(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+        }
+        byte[] bytes = magic.array();
+        if (magic.position() >= 2 && (bytes[0] & 0xff) == 0x1f && (bytes[1] & 0xff) == 0x8b) {
+            return Codec.GZIP;
+        }
+        if (magic.position() == 4 && (bytes[0] & 0xff) == 0x28 && (bytes[1] & 0xff) == 0xb5
+                && (bytes[2] & 0xff) == 0x2f && (bytes[3] & 0xff) == 0xfd) {
+            return Codec.ZSTD;
+        }
+        return Codec.PLAIN;
+    }
+
+    private void startPlainSegments(long size, int numberOfSegments) {
+        long[] offsets = new long[numberOfSegments + 1];
+        for (int i = 0; i <= numberOfSegments; i++) {
+            offsets[i] = size * i / numberOfSegments;
+        }
+        start(numberOfSegments, segment -> decompress(segment, offsets, in -> in));
+    }
+
+    private void startZstdSegments(FileChannel channel, int numberOfSegments) throws IOException {
+        List<Long> frameOffsets = ZstdFrameScanner.frameOffsets(channel);
+        long size = channel.size();
+
+        // Cut at the first frame after each evenly spaced offset, so that segments hold similar compressed sizes
+        List<Long> segmentOffsets = new ArrayList<>();
+        int frame = 0;
+        for (int i = 0; i < numberOfSegments && frame < frameOffsets.size(); i++) {
+            long target = size * i / numberOfSegments;
+            while (frame < frameOffsets.size() && frameOffsets.get(frame) < target) {
+                frame++;
+            }
+            if (frame < frameOffsets.size() && (segmentOffsets.isEmpty()
+                    || segmentOffsets.get(segmentOffsets.size() - 1) < frameOffsets.get(frame))) {
+                segmentOffsets.add(frameOffsets.get(frame));
+            }
+        }
+        long[] offsets = new long[segmentOffsets.size() + 1];
+        for (int i = 0; i < segmentOffsets.size(); i++) {
+            offsets[i] = segmentOffsets.get(i);
+        }
+        offsets[segmentOffsets.size()] = size;
+        start(segmentOffsets.size(), segment -> decompress(segment, offsets, ZstdInputStream::new));
+    }
+
+    private void startGzipSegments(FileChannel channel, int numberOfSegments) throws IOException {
+        long size = channel.size();
+        List<Long> candidates = new ArrayList<>();
+        candidates.add(0L);
+        try (GzipMemberInflater inflater = new GzipMemberInflater(channel)) {
+            for (int i = 1; i < numberOfSegments; i++) {
+                long from = Math.max(size * i / numberOfSegments, candidates.get(candidates.size() - 1) + 1);
+                long candidate = inflater.findMemberHeader(from, Math.min(size, from + GZIP_HEADER_SEARCH_LIMIT));
+                if (candidate > 0) {
+                    candidates.add(candidate);
+                }
+            }
+        }
+
+        long[] offsets = new long[candidates.size()];
+        Map<Long, Integer> segmentsByStart = new HashMap<>();
+        gzipSegmentStarts = new GzipSegmentStart[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = candidates.get(i);
+            segmentsByStart.put(offsets[i], i);
+            gzipSegmentStarts[i] = new GzipSegmentStart();
+        }
+        start(offsets.length, segment -> inflate(segment, offsets[segment], segmentsByStart));
+    }
+
+    @FunctionalInterface
+    private interface SegmentTask {
+        void run(int segment) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface StreamDecoder {
+        InputStream decode(InputStream in) throws IOException;
+    }
+
+    private void start(int numberOfSegments, SegmentTask task) {
+        segmentSinks = new DocumentLineSink[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            segmentSinks[i] = new DocumentLineSink(readAhead);
+        }
+        for (int i = 0; i < numberOfSegments; i++) {
+            int segment = i;
+            submit(() -> task.run(segment));
+        }
+    }
+
+    /**
+     * Decompresses the segment between two offsets of a plain or zstd file.
+     */
+    private void decompress(int segment, long[] offsets, StreamDecoder decoder) throws Exception {
+        if (offsets[segment] == offsets[segment + 1]) {
+            return;
+        }
+        DocumentLineSink sink = segmentSinks[segment];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                InputStream in = decoder.decode(ByteStreams.limit(
+                        Channels.newInputStream(channel.position(offsets[segment])),
+                        offsets[segment + 1] - offsets[segment]))) {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                sink.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Inflates the gzip members from a segment start up to the start of the next segment.
+     */
+    private void inflate(int segment, long start, Map<Long, Integer> segmentsByStart) throws Exception {
+        DocumentLineSink sink = segmentSinks[segment];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                GzipMemberInflater inflater = new GzipMemberInflater(channel)) {
+            long size = channel.size();
+
+            long position;
+            if (segment == 0) {
+                position = inflater.inflateMember(start, sink);
+                if (position < 0) {
+                    throw new IOException(file + " does not start with a gzip member");
+                }
+            } else {
+                // Only a segment which starts at a member boundary gets through its first member. Other read errors
+                // are rethrown, the segment before carries on past this one meanwhile.
+                sink.hold();
+                try {
+                    position = inflater.inflateMember(start, sink);
+                } catch (ZipException | EOFException e) {
+                    LOGGER.debug("Rejected gzip segment start at offset {}: {}", start, e.getMessage());
+                    segmentSinks[segment] = null;
+                    gzipSegmentStarts[segment].reject(e);
+                    return;
+                }
+                sink.release();
+            }
+
+            while (position < size) {
+                Integer nextSegment = segmentsByStart.get(position);
+                if (nextSegment != null) {
+                    gzipSegmentStarts[nextSegment].land();
+                    break;
+                }
+
+                // Corruption of a member is rethrown here
+                position = inflater.inflateMember(position, sink);
+                if (position < 0) {
+                    // Trailing bytes which are not a gzip member are ignored, as gzip does
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a gzip segment start failed to inflate, and whether the segment before it landed on it. A start which
+     * both happened to is a real member which is corrupt, and whichever happens second rethrows the error.
+     */
+    private static final class GzipSegmentStart {
+
+        private IOException rejection;
+        private boolean landed;
+
+        synchronized void reject(IOException e) throws IOException {
+            rejection = e;
+            if (landed) {
+                throw e;
+            }
+        }
+
+        synchronized void land() throws IOException {
+            landed = true;
+            if (rejection != null) {
+                throw rejection;
+            }
+        }
+    }
+
+    /**
+     * Joins the fragments of the lines cut by segment boundaries, in file order.
+     */
+    @Override
+    protected Collection<String> lastDocuments() {
+        List<String> documents = new ArrayList<>();
+        byte[] carry = new byte[0];
+        for (DocumentLineSink sink : segmentSinks) {
+            if (sink == null) {
+                continue;
+            }
+            if (sink.getHead() == null) {
+                carry = concat(carry, sink.getTail());
+                continue;
+            }
+            addDocument(documents, concat(carry, sink.getHead()));
+            carry = sink.getTail();
+        }
+        addDocument(documents, carry);
+        return documents;
+    }
+
+    private static void addDocument(List<String> documents, byte[] line) {
+        String document = DocumentLineSink.toDocument(line, line.length);
+        if (document != null) {
+            documents.add(document);
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+}
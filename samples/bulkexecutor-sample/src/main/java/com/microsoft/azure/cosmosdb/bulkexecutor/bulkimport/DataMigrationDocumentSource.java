@@ -29,10 +29,17 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import com.google.common.base.Preconditions;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.DocumentBuildEvent;
 import com.microsoft.azure.documentdb.PartitionKeyDefinition;
 
 public class DataMigrationDocumentSource {
 
+    /**
+     * Ids of warm-up documents start with this, which generated documents never do and input files are not expected
+     * to, so that warm-up never overwrites or deletes documents of the collection.
+     */
+    public static final String WARMUP_ID_PREFIX = "warmup-";
+
     /**
      * Creates a collection of documents.
      * 
@@ -44,33 +51,104 @@ public class DataMigrationDocumentSource {
     public static Collection<String> loadDocuments(int numberOfDocuments,
             PartitionKeyDefinition partitionKeyDefinition, long prefix) {
 
-        Preconditions.checkArgument(partitionKeyDefinition != null && partitionKeyDefinition.getPaths().size() > 0,
-                "there is no partition key definition");
+        return loadDocuments(numberOfDocuments, partitionKeyDefinition, prefix, KeyDistributions.UNIFORM);
+    }
 
-        Collection<String> partitionKeyPath = partitionKeyDefinition.getPaths();
-        Preconditions.checkArgument(partitionKeyPath.size() == 1,
-                "the command line benchmark tool only support simple partition key path");
+    /**
+     * Creates a collection of documents whose partition key values follow the given distribution.
+     * 
+     * @param numberOfDocuments The number of documents to load
+     * @param partitionKeyDefinition The partition key definition
+     * @param prefix The prefix to start with for id values
+     * @param keyDistribution Maps id values to partition key values
+     * @return The collection of documents to bulk import
+     */
+    public static Collection<String> loadDocuments(int numberOfDocuments,
+            PartitionKeyDefinition partitionKeyDefinition, long prefix, KeyDistribution keyDistribution) {
 
-        // Note: This sample assumes a simple (non-nested) partition key. Nested partition keys work with bulk import API too.
-        String partitionKeyName = partitionKeyPath.iterator().next().replaceFirst("^/", "");
+        return loadDocuments(numberOfDocuments, partitionKeyDefinition, prefix, keyDistribution, "");
+    }
+
+    /**
+     * Creates a collection of documents whose ids start with the given string, so that they cannot collide with
+     * documents generated with plain numeric ids.
+     * 
+     * @param numberOfDocuments The number of documents to load
+     * @param partitionKeyDefinition The partition key definition
+     * @param prefix The prefix to start with for id values
+     * @param keyDistribution Maps id values to partition key values
+     * @param idPrefix The string each id starts with
+     * @return The collection of documents to bulk import
+     */
+    public static Collection<String> loadDocuments(int numberOfDocuments,
+            PartitionKeyDefinition partitionKeyDefinition, long prefix, KeyDistribution keyDistribution,
+            String idPrefix) {
+
+        String partitionKeyName = getPartitionKeyName(partitionKeyDefinition);
+
+        DocumentBuildEvent documentBuildEvent = new DocumentBuildEvent("import");
+        documentBuildEvent.begin();
 
         ArrayList<String> allDocs = new ArrayList<>(numberOfDocuments);
 
         // Return documents to be bulk imported
         // If you are reading documents from disk you can change this to read documents from disk
-        return IntStream.range(0, numberOfDocuments).mapToObj(i -> {
+        Collection<String> documents = IntStream.range(0, numberOfDocuments).mapToObj(i -> {
             
-            String partitionKeyValue = Long.toString((prefix + i));
-            return generateDocument(partitionKeyName, partitionKeyValue);
+            long id = prefix + i;
+            return generateDocument(partitionKeyName, idPrefix + id, keyDistribution.partitionKeyFor(id));
         }).collect(Collectors.toCollection(() -> allDocs));
+
+        documentBuildEvent.setDocumentCount(documents.size());
+        documentBuildEvent.commit();
+        return documents;
+    }
+
+    /**
+     * Creates a collection of documents with the given ids.
+     * 
+     * @param ids The id values of the documents to load
+     * @param partitionKeyDefinition The partition key definition
+     * @param keyDistribution Maps id values to partition key values
+     * @return The collection of documents to bulk import
+     */
+    public static Collection<String> loadDocuments(Collection<Long> ids,
+            PartitionKeyDefinition partitionKeyDefinition, KeyDistribution keyDistribution) {
+
+        String partitionKeyName = getPartitionKeyName(partitionKeyDefinition);
+
+        DocumentBuildEvent documentBuildEvent = new DocumentBuildEvent("import");
+        documentBuildEvent.begin();
+
+        ArrayList<String> allDocs = new ArrayList<>(ids.size());
+        Collection<String> documents = ids.stream()
+                .map(id -> generateDocument(partitionKeyName, Long.toString(id), keyDistribution.partitionKeyFor(id)))
+                .collect(Collectors.toCollection(() -> allDocs));
+
+        documentBuildEvent.setDocumentCount(documents.size());
+        documentBuildEvent.commit();
+        return documents;
+    }
+
+    private static String getPartitionKeyName(PartitionKeyDefinition partitionKeyDefinition) {
+
+        Preconditions.checkArgument(partitionKeyDefinition != null && partitionKeyDefinition.getPaths().size() > 0,
+                "there is no partition key definition");
+
+        Collection<String> partitionKeyPath = partitionKeyDefinition.getPaths();
+        Preconditions.checkArgument(partitionKeyPath.size() == 1,
+                "the command line benchmark tool only support simple partition key path");
+
+        // Note: This sample assumes a simple (non-nested) partition key. Nested partition keys work with bulk import API too.
+        return partitionKeyPath.iterator().next().replaceFirst("^/", "");
     }
 
     // The size of each document is approximately 1KB.
-    private static String generateDocument(String partitionKeyName, String partitionKeyValue) {
+    private static String generateDocument(String partitionKeyName, String id, String partitionKeyValue) {
         
         StringBuilder sb = new StringBuilder();
         sb.append("{");
-        sb.append("\"id\":\"").append(partitionKeyValue).append("\"");
+        sb.append("\"id\":\"").append(id).append("\"");
 
         String data = UUID.randomUUID().toString();
         data = data + data + "0123456789012";
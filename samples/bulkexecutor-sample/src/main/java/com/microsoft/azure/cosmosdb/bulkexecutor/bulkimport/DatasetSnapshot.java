@@ -0,0 +1,315 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.azure.documentdb.PartitionKeyDefinition;
+
+/**
+ * A dataset generated once into a binary file, so that benchmark runs import, update and delete the very same
+ * documents without generating them in the measured loop.
+ * 
+ * The file holds one length-prefixed record per document, checkpoint after checkpoint, followed by the offsets of the
+ * checkpoints:
+ * 
+ * <pre>
+ * "CDBSNAP1"
+ * record*        : short id length, id, short partition key length, partition key, int document length, document
+ * long offset*   : offset of each checkpoint, and of the end of the last one
+ * int numberOfCheckpoints, int numberOfDocumentsPerCheckpoint, long offset of the checkpoint offsets
+ * </pre>
+ * 
+ * Strings are UTF-8. The file is memory mapped in regions of whole checkpoints, and checkpoints are read from slices
+ * of the mapping, so serving a checkpoint costs no generation and no file reads. Instances are thread safe.
+ */
+public class DatasetSnapshot implements AutoCloseable {
+
+    private static final byte[] MAGIC = "CDBSNAP1".getBytes(StandardCharsets.US_ASCII);
+    private static final int TRAILER_LENGTH = 16;
+
+    /**
+     * Generates the documents of a checkpoint.
+     */
+    interface DocumentLoader {
+        /**
+         * @param prefix The id of the first document, the others follow in sequence
+         * @return The documents of the checkpoint, in id order
+         */
+        List<String> load(long prefix);
+    }
+
+    private final int numberOfCheckpoints;
+    private final int numberOfDocumentsPerCheckpoint;
+    private final long[] checkpointOffsets;
+
+    // The mapped regions, each covering whole checkpoints, and the region of each checkpoint
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private final long[] regionOffsets;
+    private final int[] checkpointRegions;
+
+    /**
+     * Opens a snapshot, or returns null if no file is specified.
+     * 
+     * @param file The snapshot file, may be null
+     * @return The snapshot, or null
+     * @throws IOException if the file cannot be read
+     */
+    public static DatasetSnapshot openIfSpecified(String file) throws IOException {
+        return file == null ? null : new DatasetSnapshot(Paths.get(file));
+    }
+
+    public DatasetSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Preconditions.checkArgument(size >= MAGIC.length + TRAILER_LENGTH, "%s is not a dataset snapshot", file);
+
+            ByteBuffer magic = read(channel, 0, MAGIC.length);
+            Preconditions.checkArgument(Arrays.equals(magic.array(), MAGIC), "%s is not a dataset snapshot", file);
+
+            ByteBuffer trailer = read(channel, size - TRAILER_LENGTH, TRAILER_LENGTH);
+            this.numberOfCheckpoints = trailer.getInt();
+            this.numberOfDocumentsPerCheckpoint = trailer.getInt();
+            long checkpointOffsetsOffset = trailer.getLong();
+
+            ByteBuffer offsets = read(channel, checkpointOffsetsOffset, (numberOfCheckpoints + 1) * 8);
+            this.checkpointOffsets = new long[numberOfCheckpoints + 1];
+            for (int i = 0; i <= numberOfCheckpoints; i++) {
+                checkpointOffsets[i] = offsets.getLong();
+            }
+
+            // A mapping is limited to 2 GB, so map as many whole checkpoints per region as fit
+            this.checkpointRegions = new int[numberOfCheckpoints];
+            List<Long> mappedRegionOffsets = new ArrayList<>();
+            int checkpoint = 0;
+            while (checkpoint < numberOfCheckpoints) {
+                long regionStart = checkpointOffsets[checkpoint];
+                int regionEnd = checkpoint + 1;
+                while (regionEnd < numberOfCheckpoints
+                        && checkpointOffsets[regionEnd + 1] - regionStart <= Integer.MAX_VALUE) {
+                    regionEnd++;
+                }
+                long regionLength = checkpointOffsets[regionEnd] - regionStart;
+                Preconditions.checkArgument(regionLength <= Integer.MAX_VALUE,
+                        "checkpoint %s of %s is larger than 2 GB", checkpoint, file);
+
+                regions.add(channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionLength));
+                mappedRegionOffsets.add(regionStart);
+                for (; checkpoint < regionEnd; checkpoint++) {
+                    checkpointRegions[checkpoint] = regions.size() - 1;
+                }
+            }
+            this.regionOffsets = mappedRegionOffsets.stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    public int getNumberOfCheckpoints() {
+        return numberOfCheckpoints;
+    }
+
+    public int getNumberOfDocumentsPerCheckpoint() {
+        return numberOfDocumentsPerCheckpoint;
+    }
+
+    /**
+     * Checks that the snapshot holds the checkpoints a run is configured with.
+     * 
+     * @param numberOfCheckpoints The number of checkpoints of the run
+     * @param numberOfDocumentsPerCheckpoint The number of documents of each checkpoint of the run
+     */
+    public void checkHolds(int numberOfCheckpoints, int numberOfDocumentsPerCheckpoint) {
+        Preconditions.checkArgument(this.numberOfDocumentsPerCheckpoint == numberOfDocumentsPerCheckpoint
+                && this.numberOfCheckpoints >= numberOfCheckpoints,
+                "the dataset snapshot holds %s checkpoints of %s documents", this.numberOfCheckpoints,
+                this.numberOfDocumentsPerCheckpoint);
+    }
+
+    /**
+     * @param checkpoint The checkpoint index
+     * @return The documents of the checkpoint
+     */
+    public List<String> loadDocuments(int checkpoint) {
+        ByteBuffer records = slice(checkpoint);
+        List<String> documents = new ArrayList<>(numberOfDocumentsPerCheckpoint);
+        byte[] scratch = new byte[1024];
+        while (records.hasRemaining()) {
+            skipString(records, records.getShort() & 0xffff);
+            skipString(records, records.getShort() & 0xffff);
+            int length = records.getInt();
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            records.get(scratch, 0, length);
+            documents.add(new String(scratch, 0, length, StandardCharsets.UTF_8));
+        }
+        return documents;
+    }
+
+    /**
+     * @param checkpoint The checkpoint index
+     * @return The partition key and id of each document of the checkpoint, without reading the documents
+     */
+    public List<Pair<String, String>> loadPartitionKeyIdPairs(int checkpoint) {
+        ByteBuffer records = slice(checkpoint);
+        List<Pair<String, String>> pkIdPairs = new ArrayList<>(numberOfDocumentsPerCheckpoint);
+        while (records.hasRemaining()) {
+            String id = readString(records, records.getShort() & 0xffff);
+            String partitionKey = readString(records, records.getShort() & 0xffff);
+            skipString(records, records.getInt());
+            pkIdPairs.add(new MutablePair<>(partitionKey, id));
+        }
+        return pkIdPairs;
+    }
+
+    @Override
+    public void close() {
+        // Mappings are released when they are garbage collected
+        regions.clear();
+    }
+
+    /**
+     * Generates a dataset and writes it to a snapshot file. The file is written next to its final location and moved
+     * into place once complete, so an interrupted run leaves any previous snapshot intact.
+     * 
+     * @param file The snapshot file to write
+     * @param numberOfCheckpoints The number of checkpoints
+     * @param numberOfDocumentsPerCheckpoint The number of documents of each checkpoint
+     * @param partitionKeyDefinition The partition key definition of the collection
+     * @param keyDistribution Maps id values to partition key values
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, int numberOfCheckpoints, int numberOfDocumentsPerCheckpoint,
+            PartitionKeyDefinition partitionKeyDefinition, KeyDistribution keyDistribution) throws IOException {
+        write(file, numberOfCheckpoints, numberOfDocumentsPerCheckpoint, keyDistribution,
+                prefix -> new ArrayList<>(DataMigrationDocumentSource.loadDocuments(numberOfDocumentsPerCheckpoint,
+                        partitionKeyDefinition, prefix, keyDistribution)));
+    }
+
+    static void write(Path file, int numberOfCheckpoints, int numberOfDocumentsPerCheckpoint,
+            KeyDistribution keyDistribution, DocumentLoader documentLoader) throws IOException {
+        Path temporaryPath = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            writeRecords(temporaryPath, numberOfCheckpoints, numberOfDocumentsPerCheckpoint, keyDistribution,
+                    documentLoader);
+            Files.move(temporaryPath, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    private static void writeRecords(Path file, int numberOfCheckpoints, int numberOfDocumentsPerCheckpoint,
+            KeyDistribution keyDistribution, DocumentLoader documentLoader) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), 1024 * 1024))) {
+            out.write(MAGIC);
+
+            // DataOutputStream counts in an int, which overflows past 2 GB
+            long position = MAGIC.length;
+            long[] checkpointOffsets = new long[numberOfCheckpoints + 1];
+            for (int i = 0; i < numberOfCheckpoints; i++) {
+                checkpointOffsets[i] = position;
+                long prefix = (long) i * numberOfDocumentsPerCheckpoint;
+                List<String> documents = documentLoader.load(prefix);
+                Preconditions.checkState(documents.size() == numberOfDocumentsPerCheckpoint,
+                        "checkpoint %s has %s documents, not %s", i, documents.size(), numberOfDocumentsPerCheckpoint);
+                for (int j = 0; j < documents.size(); j++) {
+                    long id = prefix + j;
+                    position += writeString(out, Long.toString(id));
+                    position += writeString(out, keyDistribution.partitionKeyFor(id));
+                    byte[] document = documents.get(j).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(document.length);
+                    out.write(document);
+                    position += 4 + document.length;
+                }
+            }
+            checkpointOffsets[numberOfCheckpoints] = position;
+
+            for (long checkpointOffset : checkpointOffsets) {
+                out.writeLong(checkpointOffset);
+            }
+            out.writeInt(numberOfCheckpoints);
+            out.writeInt(numberOfDocumentsPerCheckpoint);
+            out.writeLong(position);
+        }
+    }
+
+    private ByteBuffer slice(int checkpoint) {
+        Preconditions.checkArgument(checkpoint >= 0 && checkpoint < numberOfCheckpoints,
+                "the snapshot has no checkpoint %s", checkpoint);
+        int region = checkpointRegions[checkpoint];
+        ByteBuffer records = regions.get(region).duplicate();
+
+        // Positioned through Buffer, whose methods ByteBuffer overrides from Java 9 on, to also run on Java 8
+        ((Buffer) records).position((int) (checkpointOffsets[checkpoint] - regionOffsets[region]));
+        ((Buffer) records).limit((int) (checkpointOffsets[checkpoint + 1] - regionOffsets[region]));
+        return records.slice();
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer, int length) {
+        ((Buffer) buffer).position(buffer.position() + length);
+    }
+
+    private static int writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Preconditions.checkArgument(bytes.length <= 0xffff, "%s is too long for a dataset snapshot", value);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        return 2 + bytes.length;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("dataset snapshot is truncated");
+            }
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
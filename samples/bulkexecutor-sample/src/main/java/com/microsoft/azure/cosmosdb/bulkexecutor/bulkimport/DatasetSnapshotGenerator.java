@@ -0,0 +1,70 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+import com.microsoft.azure.documentdb.PartitionKeyDefinition;
+
+/**
+ * Generates the documents of -numberOfCheckpoints checkpoints into a {@link DatasetSnapshot} file, the same way the
+ * import operation generates them, for later import, update and delete runs to read with -datasetSnapshot.
+ */
+public class DatasetSnapshotGenerator {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(DatasetSnapshotGenerator.class);
+
+    public void executeGenerateSnapshot(CmdLineConfiguration cfg) throws Exception {
+        Preconditions.checkArgument(cfg.getDatasetSnapshot() != null,
+                "-datasetSnapshot is required for the generatesnapshot operation");
+
+        PartitionKeyDefinition partitionKeyDefinition = new PartitionKeyDefinition();
+        partitionKeyDefinition.setPaths(Collections.singletonList(cfg.getPartitionKey()));
+
+        Path file = Paths.get(cfg.getDatasetSnapshot());
+        Stopwatch watch = Stopwatch.createStarted();
+        DatasetSnapshot.write(file, cfg.getNumberOfCheckpoints(), cfg.getNumberOfDocumentsForEachCheckpoint(),
+                partitionKeyDefinition, KeyDistributions.fromConfiguration(cfg));
+        watch.stop();
+
+        System.out.println(
+                "##########################################################################################");
+        System.out.println("Dataset snapshot written to " + file);
+        System.out.println("Number of checkpoints: " + cfg.getNumberOfCheckpoints());
+        System.out.println("Number of documents: "
+                + (long) cfg.getNumberOfCheckpoints() * cfg.getNumberOfDocumentsForEachCheckpoint());
+        System.out.println("Snapshot size in bytes: " + Files.size(file));
+        System.out.println("Generation time in milli seconds: " + watch.elapsed().toMillis());
+        System.out.println(
+                "##########################################################################################");
+    }
+}
@@ -0,0 +1,533 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+
+/**
+ * Builds JSON documents from the rows of a CSV or TSV file, on several threads.
+ * 
+ * One thread cuts the file into chunks of whole rows, the others parse the rows of a chunk in place and write each
+ * document straight into a reused buffer, so the only allocation per row is the document itself. Fields follow RFC
+ * 4180: they may be quoted, and quoted fields may contain delimiters, line breaks and doubled quotes.
+ * 
+ * Columns are mapped to document properties by a mapping such as {@code order_id=orderId:long,total:double,notes},
+ * where each entry is {@code column[=property][:type]}. A column is referred to by its header name, or by its index
+ * if the file has no header. Types are string, the default, long, double, boolean and json, which embeds the field as
+ * is. Empty unquoted fields are left out of the document, as are blank fields of the other types, quoted or not.
+ * Numbers are written in their canonical form. Without a mapping, all columns other than the id and partition key
+ * columns become string properties named after their header.
+ */
+public class DelimitedDocumentSource extends ParallelDocumentSource {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(DelimitedDocumentSource.class);
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private enum Type {
+        STRING, LONG, DOUBLE, BOOLEAN, JSON
+    }
+
+    private static final class Column {
+        final int index;
+        final String propertyPrefix;
+        final Type type;
+
+        Column(int index, String property, Type type) {
+            this.index = index;
+            this.propertyPrefix = "\"" + property + "\":";
+            this.type = type;
+        }
+    }
+
+    private final Path file;
+    private final char delimiter;
+    private final Column[] columns;
+    private final int headerLength;
+    private final Semaphore chunkPermits;
+
+    /**
+     * Opens a document source for the delimited file of the configuration, or returns null if there is none.
+     * 
+     * @param cfg The configuration
+     * @return The document source, or null
+     * @throws IOException if the file cannot be read
+     */
+    public static DelimitedDocumentSource openIfSpecified(CmdLineConfiguration cfg) throws IOException {
+        if (cfg.getDelimitedFile() == null) {
+            return null;
+        }
+
+        String partitionKeyPath = cfg.getPartitionKey();
+        Preconditions.checkArgument(partitionKeyPath.lastIndexOf('/') == 0,
+                "the command line benchmark tool only support simple partition key path");
+        String partitionKeyName = partitionKeyPath.substring(1);
+
+        return new DelimitedDocumentSource(Paths.get(cfg.getDelimitedFile()), parseDelimiter(cfg.getDelimiter()),
+                cfg.getDelimitedFileHasHeader(), cfg.getIdColumn(),
+                cfg.getPartitionKeyColumn() != null ? cfg.getPartitionKeyColumn() : partitionKeyName, partitionKeyName,
+                cfg.getColumnMapping(), cfg.getInputParallelism(), cfg.getInputReadAheadDocuments());
+    }
+
+    /**
+     * @param file The delimited file
+     * @param delimiter The field delimiter
+     * @param hasHeader Whether the first row holds the column names
+     * @param idColumn The column holding the id, which can only be typed as a string
+     * @param partitionKeyColumn The column holding the partition key, with an optional type
+     * @param partitionKeyName The name of the partition key property
+     * @param columnMapping The mapping of the other columns, or null to map all of them as strings
+     * @param parallelism The number of threads building documents
+     * @param readAheadDocuments The maximum number of documents waiting to be imported
+     * @throws IOException if the file cannot be read
+     */
+    public DelimitedDocumentSource(Path file, char delimiter, boolean hasHeader, String idColumn,
+            String partitionKeyColumn, String partitionKeyName, String columnMapping, int parallelism,
+            int readAheadDocuments) throws IOException {
+        super("delimited-parser", parallelism + 1, readAheadDocuments);
+        this.file = file;
+        this.delimiter = delimiter;
+        this.chunkPermits = new Semaphore(parallelism * CHUNKS_PER_THREAD);
+
+        List<String> header = new ArrayList<>();
+        this.headerLength = hasHeader ? readHeader(header) : 0;
+
+        List<Column> mappedColumns = new ArrayList<>();
+        Set<Integer> mappedIndexes = new HashSet<>();
+        Column idColumnMapping = toColumn(idColumn, "id", header, hasHeader);
+        Preconditions.checkArgument(idColumnMapping.type == Type.STRING, "the id column must be a string, not a %s",
+                idColumnMapping.type.name().toLowerCase(Locale.ROOT));
+        mappedColumns.add(idColumnMapping);
+        mappedColumns.add(toColumn(partitionKeyColumn, partitionKeyName, header, hasHeader));
+        if (columnMapping != null) {
+            for (String entry : columnMapping.split(",")) {
+                if (!entry.trim().isEmpty()) {
+                    mappedColumns.add(toColumn(entry, null, header, hasHeader));
+                }
+            }
+        } else {
+            Preconditions.checkArgument(hasHeader, "-columnMapping is required for a file without header");
+            for (Column column : mappedColumns) {
+                mappedIndexes.add(column.index);
+            }
+            for (int i = 0; i < header.size(); i++) {
+                if (!mappedIndexes.contains(i)) {
+                    mappedColumns.add(new Column(i, escapeProperty(header.get(i)), Type.STRING));
+                }
+            }
+        }
+        this.columns = mappedColumns.toArray(new Column[0]);
+
+        LOGGER.info("Reading {} with {} mapped columns on {} threads", file, columns.length, parallelism);
+        submit(this::split);
+    }
+
+    private static char parseDelimiter(String delimiter) {
+        if (delimiter.equalsIgnoreCase("tab") || delimiter.equals("\\t")) {
+            return '\t';
+        }
+        Preconditions.checkArgument(delimiter.length() == 1, "the delimiter must be a single character or tab");
+        return delimiter.charAt(0);
+    }
+
+    /**
+     * Reads the header row.
+     * 
+     * @return The number of characters of the header row, including its line break
+     */
+    private int readHeader(List<String> header) throws IOException {
+        StringBuilder row = new StringBuilder();
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            RowEndScanner scanner = new RowEndScanner();
+            int c;
+            while ((c = reader.read()) >= 0) {
+                row.append((char) c);
+                if (scanner.isRowEnd((char) c)) {
+                    break;
+                }
+            }
+        }
+
+        char[] chars = row.toString().toCharArray();
+        RowParser parser = new RowParser();
+        parser.parse(chars, 0, chars.length);
+        for (int i = 0; i < parser.numberOfFields; i++) {
+            header.add(parser.fieldToString(chars, i));
+        }
+        return chars.length;
+    }
+
+    private static Column toColumn(String entry, String property, List<String> header, boolean hasHeader) {
+        Type type = Type.STRING;
+        int typeSeparator = entry.lastIndexOf(':');
+        if (typeSeparator >= 0) {
+            type = Type.valueOf(entry.substring(typeSeparator + 1).trim().toUpperCase(Locale.ROOT));
+            entry = entry.substring(0, typeSeparator);
+        }
+        String column = entry.trim();
+        int propertySeparator = entry.indexOf('=');
+        if (propertySeparator >= 0) {
+            column = entry.substring(0, propertySeparator).trim();
+            if (property == null) {
+                property = entry.substring(propertySeparator + 1).trim();
+            }
+        }
+        if (property == null) {
+            property = column;
+        }
+
+        int index = hasHeader ? header.indexOf(column) : Integer.parseInt(column);
+        Preconditions.checkArgument(index >= 0, "column %s is not in the header of the file", column);
+        return new Column(index, escapeProperty(property), type);
+    }
+
+    private static String escapeProperty(String property) {
+        StringBuilder sb = new StringBuilder();
+        char[] chars = property.toCharArray();
+        appendEscaped(sb, chars, 0, chars.length, false);
+        return sb.toString();
+    }
+
+    /**
+     * Cuts the file into chunks of whole rows and hands them to the other threads.
+     */
+    private void split() throws Exception {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            long skipped = 0;
+            while (skipped < headerLength) {
+                skipped += reader.skip(headerLength - skipped);
+            }
+
+            char[] buffer = new char[CHUNK_SIZE];
+            int length = 0;
+            RowEndScanner scanner = new RowEndScanner();
+            int read;
+            while ((read = reader.read(buffer, length, buffer.length - length)) >= 0) {
+                int lastRowEnd = -1;
+                for (int i = length; i < length + read; i++) {
+                    if (scanner.isRowEnd(buffer[i])) {
+                        lastRowEnd = i;
+                    }
+                }
+                length += read;
+
+                if (lastRowEnd >= 0) {
+                    submitChunk(Arrays.copyOf(buffer, lastRowEnd + 1));
+                    System.arraycopy(buffer, lastRowEnd + 1, buffer, 0, length - lastRowEnd - 1);
+                    length -= lastRowEnd + 1;
+                }
+                if (length == buffer.length) {
+                    // A single row longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            if (length > 0) {
+                submitChunk(Arrays.copyOf(buffer, length));
+            }
+        }
+    }
+
+    private void submitChunk(char[] chunk) throws InterruptedException {
+        chunkPermits.acquire();
+        submit(() -> {
+            try {
+                buildDocuments(chunk);
+            } finally {
+                chunkPermits.release();
+            }
+        });
+    }
+
+    private void buildDocuments(char[] chunk) throws InterruptedException {
+        RowParser parser = new RowParser();
+        StringBuilder document = new StringBuilder(256);
+        int position = 0;
+        while (position < chunk.length) {
+            int rowStart = position;
+            position = parser.parse(chunk, position, chunk.length);
+            if (parser.numberOfFields == 1 && parser.starts[0] == parser.ends[0]) {
+                // Blank row
+                continue;
+            }
+
+            // The id column comes first, and a document without id would be given a generated one
+            int idIndex = columns[0].index;
+            if (idIndex >= parser.numberOfFields || parser.starts[idIndex] == parser.ends[idIndex]) {
+                throw new IllegalArgumentException("row has an empty id: " + new String(chunk, rowStart,
+                        position - rowStart).trim());
+            }
+
+            document.setLength(0);
+            document.append('{');
+            boolean first = true;
+            for (Column column : columns) {
+                int index = column.index;
+                if (index >= parser.numberOfFields || isAbsent(chunk, parser, index, column.type)) {
+                    continue;
+                }
+                if (!first) {
+                    document.append(',');
+                }
+                first = false;
+                document.append(column.propertyPrefix);
+                appendValue(document, chunk, parser, index, column.type);
+            }
+            document.append('}');
+            readAhead.put(document.toString());
+        }
+    }
+
+    /**
+     * An empty string field is only absent if it is unquoted, a field of another type is absent if it is blank.
+     */
+    private static boolean isAbsent(char[] chunk, RowParser parser, int index, Type type) {
+        int start = parser.starts[index];
+        int end = parser.ends[index];
+        if (type == Type.STRING) {
+            return start == end && !parser.quoted[index];
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(chunk[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void appendValue(StringBuilder document, char[] chunk, RowParser parser, int index, Type type) {
+        int start = parser.starts[index];
+        int end = parser.ends[index];
+        boolean doubledQuotes = parser.doubledQuotes[index];
+        switch (type) {
+        case LONG:
+        case DOUBLE:
+            String number = new String(chunk, start, end - start).trim();
+            try {
+                if (type == Type.LONG) {
+                    document.append(Long.parseLong(number));
+                } else {
+                    double value = Double.parseDouble(number);
+                    if (Double.isNaN(value) || Double.isInfinite(value)) {
+                        throw new NumberFormatException("not finite");
+                    }
+                    document.append(value);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                        "field is not a " + type.name().toLowerCase(Locale.ROOT) + ": " + number, e);
+            }
+            break;
+        case BOOLEAN:
+            String value = new String(chunk, start, end - start).trim();
+            if (value.equalsIgnoreCase("true") || value.equals("1")) {
+                document.append("true");
+            } else if (value.equalsIgnoreCase("false") || value.equals("0")) {
+                document.append("false");
+            } else {
+                throw new IllegalArgumentException("field is not a boolean: " + value);
+            }
+            break;
+        case JSON:
+            appendUnquoted(document, chunk, start, end, doubledQuotes);
+            break;
+        default:
+            document.append('"');
+            appendEscaped(document, chunk, start, end, doubledQuotes);
+            document.append('"');
+            break;
+        }
+    }
+
+    private static void appendUnquoted(StringBuilder sb, char[] chars, int start, int end, boolean doubledQuotes) {
+        if (!doubledQuotes) {
+            sb.append(chars, start, end - start);
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            sb.append(chars[i]);
+            if (chars[i] == '"') {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Appends characters as the content of a JSON string, collapsing the doubled quotes of a quoted field.
+     */
+    private static void appendEscaped(StringBuilder sb, char[] chars, int start, int end, boolean doubledQuotes) {
+        int runStart = start;
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            sb.append(chars, runStart, i - runStart);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                if (doubledQuotes) {
+                    i++;
+                }
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                sb.append(String.format("\\u%04x", (int) c));
+                break;
+            }
+            runStart = i + 1;
+        }
+        sb.append(chars, runStart, end - runStart);
+    }
+
+    /**
+     * Finds the line breaks which end rows, one character at a time, following the quoting rules of {@link RowParser}:
+     * a quote only starts a quoted field at the start of a field, and a doubled quote inside it does not end it.
+     */
+    private final class RowEndScanner {
+        private boolean fieldStart = true;
+        private boolean inQuotes;
+        private boolean afterClosingQuote;
+
+        boolean isRowEnd(char c) {
+            if (inQuotes) {
+                if (c == '"') {
+                    inQuotes = false;
+                    afterClosingQuote = true;
+                }
+                return false;
+            }
+
+            // A quote right after a closing quote is a doubled quote, and the field goes on
+            inQuotes = c == '"' && (fieldStart || afterClosingQuote);
+            afterClosingQuote = false;
+            fieldStart = c == delimiter || c == '\n' || c == '\r';
+            return c == '\n';
+        }
+    }
+
+    /**
+     * Finds the field boundaries of one row at a time, reusing its arrays from row to row.
+     */
+    private final class RowParser {
+        int numberOfFields;
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        boolean[] quoted = new boolean[16];
+        boolean[] doubledQuotes = new boolean[16];
+
+        /**
+         * @return The position after the row and its line break
+         */
+        int parse(char[] chars, int position, int length) {
+            numberOfFields = 0;
+            while (true) {
+                if (numberOfFields == starts.length) {
+                    starts = Arrays.copyOf(starts, numberOfFields * 2);
+                    ends = Arrays.copyOf(ends, numberOfFields * 2);
+                    quoted = Arrays.copyOf(quoted, numberOfFields * 2);
+                    doubledQuotes = Arrays.copyOf(doubledQuotes, numberOfFields * 2);
+                }
+                int field = numberOfFields++;
+                quoted[field] = position < length && chars[position] == '"';
+                doubledQuotes[field] = false;
+
+                if (quoted[field]) {
+                    starts[field] = ++position;
+                    while (position < length) {
+                        if (chars[position] == '"') {
+                            if (position + 1 < length && chars[position + 1] == '"') {
+                                doubledQuotes[field] = true;
+                                position += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        position++;
+                    }
+                    ends[field] = position;
+                    // Skip the closing quote, and anything up to the next delimiter
+                    while (position < length && chars[position] != delimiter && chars[position] != '\n'
+                            && chars[position] != '\r') {
+                        position++;
+                    }
+                } else {
+                    starts[field] = position;
+                    while (position < length && chars[position] != delimiter && chars[position] != '\n'
+                            && chars[position] != '\r') {
+                        position++;
+                    }
+                    ends[field] = position;
+                }
+
+                if (position < length && chars[position] == delimiter) {
+                    position++;
+                    continue;
+                }
+                if (position < length && chars[position] == '\r') {
+                    position++;
+                }
+                if (position < length && chars[position] == '\n') {
+                    position++;
+                }
+                return position;
+            }
+        }
+
+        String fieldToString(char[] chars, int field) {
+            StringBuilder sb = new StringBuilder();
+            appendUnquoted(sb, chars, starts[field], ends[field], doubledQuotes[field]);
+            return sb.toString().trim();
+        }
+    }
+}
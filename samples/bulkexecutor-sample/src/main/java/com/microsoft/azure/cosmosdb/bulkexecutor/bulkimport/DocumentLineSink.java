@@ -0,0 +1,137 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Splits the decompressed bytes of one segment of an NDJSON input file into documents and hands them to the read-ahead
+ * queue of a {@link CompressedDocumentSource}.
+ * 
+ * A segment starts and ends at arbitrary points of the decompressed stream, so the bytes before its first line feed
+ * and after its last one are kept back as fragments, to be joined with those of the neighbouring segments once all
+ * segments are done. Lines can also be held back until the data they were decoded from has been verified.
+ */
+final class DocumentLineSink {
+
+    private final BlockingQueue<String> queue;
+
+    private byte[] line = new byte[8192];
+    private int lineLength;
+    private byte[] head;
+    private List<String> heldDocuments;
+
+    DocumentLineSink(BlockingQueue<String> queue) {
+        this.queue = queue;
+    }
+
+    void write(byte[] bytes, int offset, int length) throws InterruptedException {
+        int end = offset + length;
+        while (offset < end) {
+            int lineFeed = offset;
+            while (lineFeed < end && bytes[lineFeed] != '\n') {
+                lineFeed++;
+            }
+            append(bytes, offset, lineFeed - offset);
+            if (lineFeed == end) {
+                return;
+            }
+            completeLine();
+            offset = lineFeed + 1;
+        }
+    }
+
+    /**
+     * Holds back documents until {@link #release()} is called.
+     */
+    void hold() {
+        heldDocuments = new ArrayList<>();
+    }
+
+    void release() throws InterruptedException {
+        List<String> documents = heldDocuments;
+        heldDocuments = null;
+        for (String document : documents) {
+            queue.put(document);
+        }
+    }
+
+    /**
+     * @return The bytes before the first line feed, or null if the segment has no line feed
+     */
+    byte[] getHead() {
+        return head;
+    }
+
+    /**
+     * @return The bytes after the last line feed
+     */
+    byte[] getTail() {
+        return Arrays.copyOf(line, lineLength);
+    }
+
+    /**
+     * Turns a line joined from fragments of neighbouring segments into a document.
+     * 
+     * @return The document, or null if the line is blank
+     */
+    static String toDocument(byte[] bytes, int length) {
+        int end = length;
+        while (end > 0 && (bytes[end - 1] == '\r' || bytes[end - 1] == ' ' || bytes[end - 1] == '\t')) {
+            end--;
+        }
+        int start = 0;
+        while (start < end && (bytes[start] == ' ' || bytes[start] == '\t')) {
+            start++;
+        }
+        return start == end ? null : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(bytes, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void completeLine() throws InterruptedException {
+        if (head == null) {
+            head = Arrays.copyOf(line, lineLength);
+        } else {
+            String document = toDocument(line, lineLength);
+            if (document != null) {
+                if (heldDocuments != null) {
+                    heldDocuments.add(document);
+                } else {
+                    queue.put(document);
+                }
+            }
+        }
+        lineLength = 0;
+    }
+}
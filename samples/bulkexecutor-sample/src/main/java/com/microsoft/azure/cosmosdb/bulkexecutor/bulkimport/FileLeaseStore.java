@@ -0,0 +1,381 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns checkpoints to worker processes through lease files in a shared directory.
+ * 
+ * Leases of checkpoint i are numbered by generation: checkpoint-i.lease-g is the g-th lease ever taken on the
+ * checkpoint, and holds the id of its owner. The lease with the highest generation is the current one, and it expires
+ * one lease duration after its last modified time. Once the checkpoint is imported the directory holds checkpoint-i.done,
+ * or checkpoint-i.failed if it was given up on.
+ * This relies on these file system operations being atomic, which holds for local file systems and NFS:
+ * - A lease is created by hard linking a fully written temporary file, which fails if that generation already exists,
+ *   so only one worker can acquire a checkpoint, or take over an expired lease by creating the next generation
+ * - A lease is renewed by its owner setting the modified time of its own file, no other worker ever writes to it
+ * 
+ * A taken over lease is detected by its owner when it renews, as the next generation exists. An owner never renews a
+ * lease which has already expired, since another worker may be creating the next generation at the same time.
+ * 
+ * checkpoint-i.attempts counts the leases taken on the checkpoint, including those of workers which died, so that a
+ * checkpoint which keeps failing can be given up on. It is only written by the owner of the current lease.
+ * 
+ * Expiry times are compared across hosts, so clocks must be synchronized to well within the lease duration.
+ */
+public class FileLeaseStore {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(FileLeaseStore.class);
+
+    private final Path directory;
+    private final String workerId;
+    private final Duration leaseDuration;
+
+    public FileLeaseStore(Path directory, String workerId, Duration leaseDuration) throws IOException {
+        this.directory = directory;
+        this.workerId = workerId;
+        this.leaseDuration = leaseDuration;
+
+        Files.createDirectories(directory);
+    }
+
+    public boolean isCompleted(int checkpoint) {
+        return Files.exists(donePath(checkpoint));
+    }
+
+    public boolean isFailed(int checkpoint) {
+        return Files.exists(failedPath(checkpoint));
+    }
+
+    public boolean allCompleted(int numberOfCheckpoints) {
+        for (int checkpoint = 0; checkpoint < numberOfCheckpoints; checkpoint++) {
+            if (!isCompleted(checkpoint)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that every checkpoint is either completed or failed, so that no worker has anything left to do.
+     * 
+     * @param numberOfCheckpoints The number of checkpoints of the job
+     * @return true if every checkpoint is completed or failed
+     */
+    public boolean allFinished(int numberOfCheckpoints) {
+        for (int checkpoint = 0; checkpoint < numberOfCheckpoints; checkpoint++) {
+            if (!isCompleted(checkpoint) && !isFailed(checkpoint)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Integer> failedCheckpoints(int numberOfCheckpoints) {
+        List<Integer> failedCheckpoints = new ArrayList<>();
+        for (int checkpoint = 0; checkpoint < numberOfCheckpoints; checkpoint++) {
+            if (isFailed(checkpoint)) {
+                failedCheckpoints.add(checkpoint);
+            }
+        }
+        return failedCheckpoints;
+    }
+
+    /**
+     * Acquires a lease on a checkpoint which is neither completed, failed nor leased by a live worker.
+     * 
+     * @param numberOfCheckpoints The number of checkpoints of the job
+     * @return The lease, or null if every remaining checkpoint is leased
+     * @throws IOException if the lease directory cannot be accessed
+     */
+    public Lease tryAcquire(int numberOfCheckpoints) throws IOException {
+
+        // Workers start scanning at different checkpoints to avoid all contending for the same leases
+        int offset = Math.floorMod(workerId.hashCode(), numberOfCheckpoints);
+
+        for (int i = 0; i < numberOfCheckpoints; i++) {
+            int checkpoint = (offset + i) % numberOfCheckpoints;
+            if (isCompleted(checkpoint) || isFailed(checkpoint)) {
+                continue;
+            }
+
+            Lease lease = tryAcquire(checkpoint, currentGeneration(checkpoint));
+            if (lease != null) {
+                // The checkpoint may have been completed by the previous owner in the meantime
+                if (isCompleted(checkpoint) || isFailed(checkpoint)) {
+                    Files.deleteIfExists(leasePath(checkpoint, lease.generation));
+                    continue;
+                }
+                lease.attempt = recordAttempt(checkpoint);
+                return lease;
+            }
+        }
+        return null;
+    }
+
+    private Lease tryAcquire(int checkpoint, int currentGeneration) throws IOException {
+        String previousOwner = null;
+        if (currentGeneration > 0) {
+            Path currentPath = leasePath(checkpoint, currentGeneration);
+            long expiryTimeInMillis;
+            try {
+                previousOwner = new String(Files.readAllBytes(currentPath), StandardCharsets.UTF_8);
+                expiryTimeInMillis = Files.getLastModifiedTime(currentPath).toMillis() + leaseDuration.toMillis();
+            } catch (NoSuchFileException e) {
+                // Finished in the meantime
+                return null;
+            }
+            if (expiryTimeInMillis > System.currentTimeMillis()) {
+                return null;
+            }
+        }
+
+        int generation = currentGeneration + 1;
+        long now = System.currentTimeMillis();
+        Path temporaryPath = directory.resolve(String.format("checkpoint-%05d.tmp-%s", checkpoint, workerId));
+        Files.write(temporaryPath, workerId.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(temporaryPath, FileTime.fromMillis(now));
+        try {
+            Files.createLink(leasePath(checkpoint, generation), temporaryPath);
+        } catch (FileAlreadyExistsException e) {
+            // Another worker acquired or took over the checkpoint first
+            return null;
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+
+        if (previousOwner == null) {
+            LOGGER.debug("Worker {} acquired checkpoint {}", workerId, checkpoint);
+        } else {
+            LOGGER.info("Worker {} is taking over expired checkpoint {} from {}", workerId, checkpoint, previousOwner);
+        }
+
+        // Earlier generations are kept until the checkpoint is finished: a worker which listed the directory before this
+        // takeover could otherwise create one of them again, and believe it holds the checkpoint
+        return new Lease(checkpoint, generation, now + leaseDuration.toMillis());
+    }
+
+    /*
+     * Increments the number of attempts of a checkpoint, which only the owner of its current lease does.
+     */
+    private int recordAttempt(int checkpoint) throws IOException {
+        Path attemptsPath = attemptsPath(checkpoint);
+        int attempt = 1;
+        if (Files.exists(attemptsPath)) {
+            attempt += Integer.parseInt(new String(Files.readAllBytes(attemptsPath), StandardCharsets.UTF_8).trim());
+        }
+
+        Path temporaryPath = directory.resolve(String.format("checkpoint-%05d.attempts-tmp-%s", checkpoint, workerId));
+        Files.write(temporaryPath, Integer.toString(attempt).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporaryPath, attemptsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return attempt;
+    }
+
+    /*
+     * Returns the highest lease generation of a checkpoint, or 0 if it has never been leased.
+     */
+    private int currentGeneration(int checkpoint) throws IOException {
+        String prefix = String.format("checkpoint-%05d.lease-", checkpoint);
+        int currentGeneration = 0;
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path lease : leases) {
+                try {
+                    int generation = Integer.parseInt(lease.getFileName().toString().substring(prefix.length()));
+                    currentGeneration = Math.max(currentGeneration, generation);
+                } catch (NumberFormatException e) {
+                    // Not a lease file
+                }
+            }
+        }
+        return currentGeneration;
+    }
+
+    private Path leasePath(int checkpoint, int generation) {
+        return directory.resolve(String.format("checkpoint-%05d.lease-%d", checkpoint, generation));
+    }
+
+    private Path donePath(int checkpoint) {
+        return directory.resolve(String.format("checkpoint-%05d.done", checkpoint));
+    }
+
+    private Path failedPath(int checkpoint) {
+        return directory.resolve(String.format("checkpoint-%05d.failed", checkpoint));
+    }
+
+    private Path attemptsPath(int checkpoint) {
+        return directory.resolve(String.format("checkpoint-%05d.attempts", checkpoint));
+    }
+
+    /**
+     * A checkpoint leased by this worker.
+     */
+    public class Lease {
+
+        private final int checkpoint;
+        private final int generation;
+        private int attempt;
+        private long expiryTimeInMillis;
+        private boolean lost;
+
+        private Lease(int checkpoint, int generation, long expiryTimeInMillis) {
+            this.checkpoint = checkpoint;
+            this.generation = generation;
+            this.expiryTimeInMillis = expiryTimeInMillis;
+        }
+
+        public int getCheckpoint() {
+            return checkpoint;
+        }
+
+        /**
+         * @return The number of leases taken on the checkpoint so far, this one included
+         */
+        public int getAttempt() {
+            return attempt;
+        }
+
+        /**
+         * Checks that the lease has neither expired nor been taken over by another worker.
+         * 
+         * @return true if this worker still owns the checkpoint
+         */
+        public synchronized boolean isHeld() {
+            if (!lost && (System.currentTimeMillis() >= expiryTimeInMillis
+                    || Files.exists(leasePath(checkpoint, generation + 1)))) {
+                lost = true;
+            }
+            return !lost;
+        }
+
+        /**
+         * Extends the lease by the lease duration.
+         * 
+         * @return false if the lease expired or was taken over by another worker, it cannot be renewed any more
+         * @throws IOException if the lease directory cannot be accessed
+         */
+        public synchronized boolean renew() throws IOException {
+            if (!isHeld()) {
+                return false;
+            }
+
+            // No other worker takes over an unexpired lease, so there is no race between the check above and the update
+            long now = System.currentTimeMillis();
+            try {
+                Files.setLastModifiedTime(leasePath(checkpoint, generation), FileTime.fromMillis(now));
+            } catch (NoSuchFileException e) {
+                lost = true;
+                return false;
+            }
+            expiryTimeInMillis = now + leaseDuration.toMillis();
+            return true;
+        }
+
+        /**
+         * Records the checkpoint as completed and releases the lease.
+         * 
+         * @throws IOException if the lease directory cannot be accessed
+         * @throws IllegalStateException if the lease is no longer held
+         */
+        public synchronized void complete() throws IOException {
+            if (!isHeld()) {
+                throw new IllegalStateException("worker " + workerId + " no longer holds checkpoint " + checkpoint);
+            }
+            Files.write(donePath(checkpoint), workerId.getBytes(StandardCharsets.UTF_8));
+            deleteLeases();
+            lost = true;
+        }
+
+        /**
+         * Records the checkpoint as failed, so that no worker attempts it again, and releases the lease.
+         * 
+         * @throws IOException if the lease directory cannot be accessed
+         * @throws IllegalStateException if the lease is no longer held
+         */
+        public synchronized void fail() throws IOException {
+            if (!isHeld()) {
+                throw new IllegalStateException("worker " + workerId + " no longer holds checkpoint " + checkpoint);
+            }
+            Files.write(failedPath(checkpoint), workerId.getBytes(StandardCharsets.UTF_8));
+            deleteLeases();
+            lost = true;
+        }
+
+        /*
+         * Deletes the lease files of a finished checkpoint. A worker which creates one again sees that the checkpoint
+         * is finished and deletes it.
+         */
+        private void deleteLeases() throws IOException {
+            for (int previousGeneration = generation; previousGeneration > 0; previousGeneration--) {
+                Files.deleteIfExists(leasePath(checkpoint, previousGeneration));
+            }
+        }
+
+        /**
+         * Releases the lease without completing the checkpoint, so another worker can pick it up right away.
+         * 
+         * @throws IOException if the lease directory cannot be accessed
+         */
+        public void release() throws IOException {
+            release(Duration.ZERO);
+        }
+
+        /**
+         * Releases the lease without completing the checkpoint, so another worker can pick it up after a delay.
+         * 
+         * @param retryDelay The time before the lease expires, at most the lease duration
+         * @throws IOException if the lease directory cannot be accessed
+         */
+        public synchronized void release(Duration retryDelay) throws IOException {
+            if (!isHeld()) {
+                return;
+            }
+
+            // The lease file is kept, expiring after the delay, so that generations keep increasing and the next owner
+            // takes it over
+            long expiryTimeInMillis = retryDelay.isZero() ? 0
+                    : System.currentTimeMillis() + Math.min(retryDelay.toMillis(), leaseDuration.toMillis());
+            try {
+                Files.setLastModifiedTime(leasePath(checkpoint, generation),
+                        FileTime.fromMillis(Math.max(0, expiryTimeInMillis - leaseDuration.toMillis())));
+            } catch (NoSuchFileException e) {
+                // Already taken over
+            }
+            lost = true;
+        }
+    }
+}
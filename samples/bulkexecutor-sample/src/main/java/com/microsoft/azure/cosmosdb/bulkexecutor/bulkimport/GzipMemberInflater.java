@@ -0,0 +1,236 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates single members of a multi-member gzip file, such as those written by bgzip or pigz, starting at a given
+ * offset, so that the members of a file can be inflated on several threads. Not thread safe, each thread uses its own.
+ * 
+ * Member offsets are not stored anywhere in a gzip file. {@link #findMemberHeader(long, long)} finds offsets which look
+ * like member headers, but may be false matches inside compressed data. Inflating a false match fails, or fails its
+ * CRC check, almost always within the first member.
+ */
+final class GzipMemberInflater implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[64 * 1024];
+    private final byte[] output = new byte[64 * 1024];
+
+    // File offset of input[0], number of valid bytes in input and offset of the next unread byte
+    private long inputPosition;
+    private int inputLength;
+    private int inputOffset;
+
+    GzipMemberInflater(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Finds the first offset at or after the given one which looks like a gzip member header.
+     * 
+     * @param from The offset to search from
+     * @param limit The offset to stop searching at
+     * @return The offset of the header, or -1 if none was found
+     * @throws IOException if the file cannot be read
+     */
+    long findMemberHeader(long from, long limit) throws IOException {
+        byte[] header = new byte[10];
+        for (long position = from; position < limit; position++) {
+            seek(position);
+            if (inputOffset == inputLength && !fill()) {
+                return -1;
+            }
+            if ((input[inputOffset] & 0xff) == 0x1f && peek(header) && isMemberHeader(header)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inflates the member starting at the given offset and verifies its CRC and size.
+     * 
+     * @param position The offset of the member
+     * @param sink The sink to write the inflated bytes to
+     * @return The offset after the end of the member, or -1 if there is no member header at the offset
+     * @throws IOException if the file cannot be read or the member is corrupt
+     * @throws InterruptedException if interrupted while handing documents to the sink
+     */
+    long inflateMember(long position, DocumentLineSink sink) throws IOException, InterruptedException {
+        seek(position);
+        byte[] header = new byte[10];
+        if (!peek(header) || !isMemberHeader(header)) {
+            return -1;
+        }
+        skip(10);
+
+        int flags = header[3];
+        if ((flags & 0x04) != 0) {
+            int extraLength = readByte() | (readByte() << 8);
+            skip(extraLength);
+        }
+        if ((flags & 0x08) != 0) {
+            while (readByte() != 0) {
+            }
+        }
+        if ((flags & 0x10) != 0) {
+            while (readByte() != 0) {
+            }
+        }
+        if ((flags & 0x02) != 0) {
+            skip(2);
+        }
+
+        inflater.reset();
+        crc.reset();
+        long size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (inputOffset == inputLength && !fill()) {
+                        throw new EOFException("gzip member at offset " + position + " is truncated");
+                    }
+                    inflater.setInput(input, inputOffset, inputLength - inputOffset);
+                    inputOffset = inputLength;
+                }
+                int length = inflater.inflate(output);
+                if (length == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("gzip member at offset " + position + " needs a dictionary");
+                }
+                crc.update(output, 0, length);
+                size += length;
+                sink.write(output, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("gzip member at offset " + position + " is corrupt: " + e.getMessage());
+        }
+        inputOffset = inputLength - inflater.getRemaining();
+
+        long expectedCrc = readIntLittleEndian();
+        long expectedSize = readIntLittleEndian();
+        if (expectedCrc != crc.getValue() || expectedSize != (size & 0xffffffffL)) {
+            throw new ZipException("gzip member at offset " + position + " fails its CRC or size check");
+        }
+        return inputPosition + inputOffset;
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    private static boolean isMemberHeader(byte[] header) {
+        int extraFlags = header[8] & 0xff;
+        int operatingSystem = header[9] & 0xff;
+        return (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8
+                && (header[3] & 0xe0) == 0
+                && (extraFlags == 0 || extraFlags == 2 || extraFlags == 4)
+                && (operatingSystem <= 13 || operatingSystem == 255);
+    }
+
+    private void seek(long position) {
+        if (position >= inputPosition && position <= inputPosition + inputLength) {
+            inputOffset = (int) (position - inputPosition);
+        } else {
+            inputPosition = position;
+            inputLength = 0;
+            inputOffset = 0;
+        }
+    }
+
+    private boolean peek(byte[] bytes) throws IOException {
+        if (inputLength - inputOffset < bytes.length) {
+            compact();
+            if (inputLength < bytes.length) {
+                return false;
+            }
+        }
+        System.arraycopy(input, inputOffset, bytes, 0, bytes.length);
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (inputOffset == inputLength && !fill()) {
+            throw new EOFException("gzip member header is truncated");
+        }
+        return input[inputOffset++] & 0xff;
+    }
+
+    private long readIntLittleEndian() throws IOException {
+        return readByte() | (readByte() << 8) | (readByte() << 16) | ((long) readByte() << 24);
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            if (inputOffset == inputLength && !fill()) {
+                throw new EOFException("gzip member header is truncated");
+            }
+            int skipped = (int) Math.min(length, inputLength - inputOffset);
+            inputOffset += skipped;
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Replaces the consumed input with the bytes following it in the file.
+     */
+    private boolean fill() throws IOException {
+        inputPosition += inputLength;
+        inputLength = 0;
+        inputOffset = 0;
+        return read() > 0;
+    }
+
+    /**
+     * Moves the unread input to the start of the buffer and reads more after it.
+     */
+    private void compact() throws IOException {
+        int remaining = inputLength - inputOffset;
+        System.arraycopy(input, inputOffset, input, 0, remaining);
+        inputPosition += inputOffset;
+        inputLength = remaining;
+        inputOffset = 0;
+        while (inputLength < input.length && read() > 0) {
+        }
+    }
+
+    private int read() throws IOException {
+        int length = channel.read(ByteBuffer.wrap(input, inputLength, input.length - inputLength),
+                inputPosition + inputLength);
+        if (length > 0) {
+            inputLength += length;
+        }
+        return length;
+    }
+}
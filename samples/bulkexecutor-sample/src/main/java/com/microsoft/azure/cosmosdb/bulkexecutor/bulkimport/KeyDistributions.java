@@ -0,0 +1,176 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+
+/**
+ * The key distributions supported by the synthetic document generator:
+ * <ul>
+ * <li>uniform: every document is its own logical partition, which spreads load perfectly evenly</li>
+ * <li>partitions: documents are spread round robin over a fixed set of logical partitions</li>
+ * <li>zipfian: documents are spread over a fixed set of logical partitions with Zipfian skew, partition "0" being the
+ * hottest</li>
+ * <li>hotspot: a fraction of the documents goes to a small fraction of the logical partitions, the rest is spread
+ * evenly over the remaining partitions</li>
+ * </ul>
+ */
+public class KeyDistributions {
+
+    /**
+     * Uses the id itself as partition key value.
+     */
+    public static final KeyDistribution UNIFORM = id -> Long.toString(id);
+
+    /**
+     * Creates the key distribution selected on the command line.
+     * 
+     * @param cfg Command line configuration settings passed
+     * @return The key distribution
+     */
+    public static KeyDistribution fromConfiguration(CmdLineConfiguration cfg) {
+        return create(cfg.getKeyDistribution(), cfg.getNumberOfLogicalPartitions(), cfg.getZipfianConstant(),
+                cfg.getHotspotDocumentFraction(), cfg.getHotspotPartitionFraction());
+    }
+
+    /**
+     * Creates a key distribution.
+     * 
+     * @param name One of uniform, partitions, zipfian or hotspot
+     * @param numberOfLogicalPartitions The number of logical partitions, ignored by the uniform distribution
+     * @param zipfianConstant The skew of the zipfian distribution, in (0, 1)
+     * @param hotspotDocumentFraction The fraction of documents going to hot partitions
+     * @param hotspotPartitionFraction The fraction of partitions which are hot
+     * @return The key distribution
+     */
+    public static KeyDistribution create(String name, long numberOfLogicalPartitions, double zipfianConstant,
+            double hotspotDocumentFraction, double hotspotPartitionFraction) {
+
+        if (name.equalsIgnoreCase("uniform")) {
+            return UNIFORM;
+        }
+
+        Preconditions.checkArgument(numberOfLogicalPartitions > 0, "numberOfLogicalPartitions must be positive");
+
+        if (name.equalsIgnoreCase("partitions")) {
+            return id -> Long.toString(Math.floorMod(id, numberOfLogicalPartitions));
+        } else if (name.equalsIgnoreCase("zipfian")) {
+            return new ZipfianKeyDistribution(numberOfLogicalPartitions, zipfianConstant);
+        } else if (name.equalsIgnoreCase("hotspot")) {
+            return new HotspotKeyDistribution(numberOfLogicalPartitions, hotspotDocumentFraction,
+                    hotspotPartitionFraction);
+        }
+
+        throw new IllegalArgumentException("unknown key distribution " + name);
+    }
+
+    /*
+     * Maps an id to a double uniformly distributed in [0, 1), using the SplitMix64 finalizer as hash function.
+     */
+    static double uniformFor(long id, long seed) {
+        long z = id + seed * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    /*
+     * Zipfian generator of Gray et al., "Quickly Generating Billion-Record Synthetic Databases", as used by YCSB,
+     * driven by a hash of the id instead of a random number generator.
+     */
+    private static class ZipfianKeyDistribution implements KeyDistribution {
+
+        private final long numberOfLogicalPartitions;
+        private final double theta;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+
+        ZipfianKeyDistribution(long numberOfLogicalPartitions, double theta) {
+            Preconditions.checkArgument(theta > 0 && theta < 1, "zipfianConstant must be in (0, 1)");
+
+            this.numberOfLogicalPartitions = numberOfLogicalPartitions;
+            this.theta = theta;
+
+            double sum = 0;
+            for (long i = 1; i <= numberOfLogicalPartitions; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            this.zetan = sum;
+
+            double zeta2 = 1 + 1 / Math.pow(2, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / numberOfLogicalPartitions, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        @Override
+        public String partitionKeyFor(long id) {
+            double u = uniformFor(id, 1);
+            double uz = u * zetan;
+
+            long rank;
+            if (uz < 1) {
+                rank = 0;
+            } else if (uz < 1 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = (long) (numberOfLogicalPartitions * Math.pow(eta * u - eta + 1, alpha));
+            }
+            return Long.toString(Math.min(rank, numberOfLogicalPartitions - 1));
+        }
+    }
+
+    private static class HotspotKeyDistribution implements KeyDistribution {
+
+        private final long numberOfLogicalPartitions;
+        private final long numberOfHotPartitions;
+        private final double hotspotDocumentFraction;
+
+        HotspotKeyDistribution(long numberOfLogicalPartitions, double hotspotDocumentFraction,
+                double hotspotPartitionFraction) {
+            Preconditions.checkArgument(hotspotDocumentFraction >= 0 && hotspotDocumentFraction <= 1,
+                    "hotspotDocumentFraction must be in [0, 1]");
+            Preconditions.checkArgument(hotspotPartitionFraction > 0 && hotspotPartitionFraction <= 1,
+                    "hotspotPartitionFraction must be in (0, 1]");
+
+            this.numberOfLogicalPartitions = numberOfLogicalPartitions;
+            this.numberOfHotPartitions = Math.max(1, Math.round(numberOfLogicalPartitions * hotspotPartitionFraction));
+            this.hotspotDocumentFraction = hotspotDocumentFraction;
+        }
+
+        @Override
+        public String partitionKeyFor(long id) {
+            double u = uniformFor(id, 2);
+
+            long partition;
+            if (uniformFor(id, 1) < hotspotDocumentFraction || numberOfHotPartitions == numberOfLogicalPartitions) {
+                partition = (long) (u * numberOfHotPartitions);
+            } else {
+                partition = numberOfHotPartitions + (long) (u * (numberOfLogicalPartitions - numberOfHotPartitions));
+            }
+            return Long.toString(partition);
+        }
+    }
+}
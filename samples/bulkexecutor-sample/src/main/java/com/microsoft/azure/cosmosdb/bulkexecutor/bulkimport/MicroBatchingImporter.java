@@ -0,0 +1,421 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.LatencyRecorder;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportFailure;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
+
+/**
+ * Asynchronous entry point to the bulk import API for traffic which arrives as many small writes rather than as
+ * prepared checkpoints.
+ * 
+ * Submissions of single documents or small groups are queued and coalesced into bulk import calls. A batch is flushed
+ * once it holds the maximum number of documents or bytes, or once its oldest submission reaches the maximum age,
+ * whichever comes first. One batch is imported at a time, on a dedicated thread, and submissions keep queueing up
+ * behind it. The future of each submission is completed with the outcome of its own documents only. Failures are
+ * mapped back to submissions by occurrence, so identical documents in two submissions are told apart. If the number of
+ * documents imported and reported as failed does not add up to the batch, the submissions whose documents cannot be
+ * accounted for are failed rather than reported as imported.
+ * 
+ * Futures are completed on the common fork join pool rather than on the flushing thread, so dependent stages do not
+ * hold up the next batch.
+ */
+public class MicroBatchingImporter implements AutoCloseable {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(MicroBatchingImporter.class);
+
+    /**
+     * Thrown through the future of a submission when some of its documents failed to import.
+     */
+    public static class DocumentsFailedToImportException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> failedDocuments;
+
+        public DocumentsFailedToImportException(List<String> failedDocuments, Throwable cause) {
+            super(failedDocuments.size() + " documents failed to import", cause);
+            this.failedDocuments = failedDocuments;
+        }
+
+        /**
+         * @return The documents of the submission which failed to import
+         */
+        public List<String> getFailedDocuments() {
+            return failedDocuments;
+        }
+    }
+
+    private static final class Submission {
+        final List<String> documents;
+        final long bytes;
+        final long submitTimeInNanos = System.nanoTime();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        List<String> failedDocuments;
+        Throwable failureCause;
+
+        Submission(List<String> documents, long bytes) {
+            this.documents = documents;
+            this.bytes = bytes;
+        }
+
+        void fail(String document, Throwable cause) {
+            if (failedDocuments == null) {
+                failedDocuments = new ArrayList<>();
+            }
+            failedDocuments.add(document);
+            if (failureCause == null) {
+                failureCause = cause;
+            }
+        }
+    }
+
+    /**
+     * The outcome of one bulk import call: the number of documents imported, and each document reported as failed,
+     * once per failed occurrence.
+     */
+    static final class BatchOutcome {
+        final int numberOfDocumentsImported;
+        final List<String> failedDocuments = new ArrayList<>();
+        final List<Throwable> failureCauses = new ArrayList<>();
+
+        BatchOutcome(int numberOfDocumentsImported) {
+            this.numberOfDocumentsImported = numberOfDocumentsImported;
+        }
+
+        void addFailure(String document, Throwable cause) {
+            failedDocuments.add(document);
+            failureCauses.add(cause);
+        }
+
+        static BatchOutcome of(BulkImportResponse bulkImportResponse) {
+            BatchOutcome outcome = new BatchOutcome(bulkImportResponse.getNumberOfDocumentsImported());
+            for (BulkImportFailure eachBulkImportFailure : bulkImportResponse.getFailedImports()) {
+                for (String document : eachBulkImportFailure.getDocumentsFailedToImport()) {
+                    outcome.addFailure(document, eachBulkImportFailure.getBulkImportFailureException());
+                }
+            }
+            for (Object badInputDocument : bulkImportResponse.getBadInputDocuments()) {
+                outcome.addFailure(String.valueOf(badInputDocument), null);
+            }
+            return outcome;
+        }
+    }
+
+    /**
+     * Imports one batch of documents in a single call.
+     */
+    @FunctionalInterface
+    interface BatchImporter {
+        BatchOutcome importAll(List<String> documents) throws Exception;
+    }
+
+    private final BatchImporter batchImporter;
+    private final int maxBatchDocuments;
+    private final long maxBatchBytes;
+    private final long maxBatchAgeInNanos;
+    private final int maxPendingDocuments;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final ArrayDeque<Submission> pending = new ArrayDeque<>();
+    private int pendingDocuments;
+    private long pendingBytes;
+    private boolean closed;
+
+    private final LatencyRecorder submissionLatency = new LatencyRecorder("submission");
+    private final Thread flusher;
+
+    /**
+     * Creates a micro-batching importer on top of an existing bulk executor and starts its flushing thread.
+     * 
+     * @param bulkExecutor The bulk executor of the target collection
+     * @param isUpsert Whether existing documents are replaced
+     * @param disableAutomaticIdGeneration Whether documents without an id are rejected instead of given a generated one
+     * @param maxBatchDocuments The number of documents which triggers a flush
+     * @param maxBatchBytes The total document size, in characters, which triggers a flush
+     * @param maxBatchAgeInMillis The age of the oldest submission which triggers a flush
+     * @param maxPendingDocuments The number of queued documents beyond which submissions are rejected
+     */
+    public MicroBatchingImporter(DocumentBulkExecutor bulkExecutor, boolean isUpsert,
+            boolean disableAutomaticIdGeneration, int maxBatchDocuments, long maxBatchBytes, long maxBatchAgeInMillis,
+            int maxPendingDocuments) {
+        this(batchImporterOf(bulkExecutor, isUpsert, disableAutomaticIdGeneration), maxBatchDocuments, maxBatchBytes,
+                maxBatchAgeInMillis, maxPendingDocuments);
+    }
+
+    MicroBatchingImporter(BatchImporter batchImporter, int maxBatchDocuments, long maxBatchBytes,
+            long maxBatchAgeInMillis, int maxPendingDocuments) {
+
+        Preconditions.checkArgument(maxBatchDocuments > 0, "maxBatchDocuments must be positive");
+        Preconditions.checkArgument(maxBatchBytes > 0, "maxBatchBytes must be positive");
+        Preconditions.checkArgument(maxBatchAgeInMillis >= 0, "maxBatchAgeInMillis cannot be negative");
+        Preconditions.checkArgument(maxPendingDocuments >= maxBatchDocuments,
+                "maxPendingDocuments must be at least maxBatchDocuments");
+
+        this.batchImporter = batchImporter;
+        this.maxBatchDocuments = maxBatchDocuments;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxBatchAgeInNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchAgeInMillis);
+        this.maxPendingDocuments = maxPendingDocuments;
+
+        this.flusher = new Thread(this::flushLoop, "micro-batch-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    private static BatchImporter batchImporterOf(DocumentBulkExecutor bulkExecutor, boolean isUpsert,
+            boolean disableAutomaticIdGeneration) {
+        Preconditions.checkArgument(bulkExecutor != null, "bulkExecutor cannot be null");
+        return documents -> BatchOutcome.of(
+                bulkExecutor.importAll(documents, isUpsert, disableAutomaticIdGeneration, null));
+    }
+
+    /**
+     * Submits a single document.
+     * 
+     * @param document The JSON document
+     * @return A future completed once the document is imported, or completed exceptionally with a
+     *         {@link DocumentsFailedToImportException} if it failed to import
+     */
+    public CompletableFuture<Void> submit(String document) {
+        return submit(Collections.singletonList(document));
+    }
+
+    /**
+     * Submits a group of documents, which are imported in the same bulk import call.
+     * 
+     * @param documents The JSON documents
+     * @return A future completed once all documents are imported, or completed exceptionally with a
+     *         {@link DocumentsFailedToImportException} listing those which failed to import or could not be
+     *         accounted for, or with a
+     *         {@link RejectedExecutionException} if too many documents are queued
+     * @throws IllegalStateException if the importer is closed
+     */
+    public CompletableFuture<Void> submit(Collection<String> documents) {
+        long bytes = 0;
+        for (String document : documents) {
+            bytes += document.length();
+        }
+        Submission submission = new Submission(new ArrayList<>(documents), bytes);
+
+        lock.lock();
+        try {
+            Preconditions.checkState(!closed, "the importer is closed");
+            if (pendingDocuments + documents.size() > maxPendingDocuments) {
+                submission.future.completeExceptionally(new RejectedExecutionException(
+                        "more than " + maxPendingDocuments + " documents are waiting to be imported"));
+                return submission.future;
+            }
+            pending.add(submission);
+            pendingDocuments += documents.size();
+            pendingBytes += bytes;
+            if (pendingDocuments >= maxBatchDocuments || pendingBytes >= maxBatchBytes || pending.size() == 1) {
+                // A full batch is flushed right away, and the first submission starts the age timer
+                batchReady.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return submission.future;
+    }
+
+    /**
+     * @return The latency from submission to completion of the futures
+     */
+    public LatencyRecorder getSubmissionLatency() {
+        return submissionLatency;
+    }
+
+    /**
+     * Flushes the queued submissions and stops the flushing thread.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+        flusher.join();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<Submission> batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+            importBatch(batch);
+        }
+    }
+
+    /**
+     * Waits for a batch to fill up or age out, and takes it.
+     * 
+     * @return The submissions of the batch, or null once closed and drained
+     */
+    private List<Submission> takeBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (pending.isEmpty()) {
+                    if (closed) {
+                        return null;
+                    }
+                    batchReady.await();
+                    continue;
+                }
+                long waitTime = pending.peek().submitTimeInNanos + maxBatchAgeInNanos - System.nanoTime();
+                if (closed || waitTime <= 0 || pendingDocuments >= maxBatchDocuments || pendingBytes >= maxBatchBytes) {
+                    break;
+                }
+                batchReady.awaitNanos(waitTime);
+            }
+
+            // Take whole submissions up to the batch limits, but at least one
+            List<Submission> batch = new ArrayList<>();
+            int batchDocuments = 0;
+            long batchBytes = 0;
+            while (!pending.isEmpty()) {
+                Submission next = pending.peek();
+                if (!batch.isEmpty() && (batchDocuments + next.documents.size() > maxBatchDocuments
+                        || batchBytes + next.bytes > maxBatchBytes)) {
+                    break;
+                }
+                batch.add(pending.poll());
+                batchDocuments += next.documents.size();
+                batchBytes += next.bytes;
+            }
+            pendingDocuments -= batchDocuments;
+            pendingBytes -= batchBytes;
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void importBatch(List<Submission> batch) {
+        List<String> documents = new ArrayList<>();
+        Map<String, ArrayDeque<Submission>> submissionsByDocument = new HashMap<>();
+        for (Submission submission : batch) {
+            for (String document : submission.documents) {
+                documents.add(document);
+                submissionsByDocument.computeIfAbsent(document, d -> new ArrayDeque<>(1)).add(submission);
+            }
+        }
+
+        try {
+            LOGGER.debug("Importing batch of {} documents from {} submissions", documents.size(), batch.size());
+            BatchOutcome outcome = batchImporter.importAll(documents);
+
+            // Each reported failure takes the next occurrence of its document, documents not reported were imported
+            int numberOfFailuresMatched = 0;
+            for (int i = 0; i < outcome.failedDocuments.size(); i++) {
+                String document = outcome.failedDocuments.get(i);
+                ArrayDeque<Submission> submissions = submissionsByDocument.get(document);
+                Submission submission = submissions != null ? submissions.poll() : null;
+                if (submission == null) {
+                    LOGGER.warn("Bulk import reported a failure for a document which was not submitted");
+                    continue;
+                }
+                submission.fail(document, outcome.failureCauses.get(i));
+                numberOfFailuresMatched++;
+            }
+
+            int numberOfDocumentsUnaccountedFor = documents.size() - outcome.numberOfDocumentsImported
+                    - numberOfFailuresMatched;
+            if (numberOfDocumentsUnaccountedFor != 0
+                    || numberOfFailuresMatched != outcome.failedDocuments.size()) {
+                failUnaccountedFor(submissionsByDocument, new IllegalStateException(documents.size()
+                        + " documents were submitted but " + outcome.numberOfDocumentsImported + " were imported and "
+                        + outcome.failedDocuments.size() + " reported as failed"));
+            }
+        } catch (Throwable t) {
+            // Errors too, since no submission of the batch would ever complete otherwise
+            LOGGER.warn("Bulk import of {} documents failed", documents.size(), t);
+            for (Submission submission : batch) {
+                submission.failedDocuments = submission.documents;
+                submission.failureCause = t;
+            }
+        }
+
+        for (Submission submission : batch) {
+            complete(submission);
+        }
+    }
+
+    /**
+     * Fails the occurrences of documents which were neither reported as failed nor can be known to be imported.
+     */
+    private static void failUnaccountedFor(Map<String, ArrayDeque<Submission>> submissionsByDocument,
+            Throwable cause) {
+        LOGGER.warn("Bulk import results do not add up, failing the documents not reported as failed: {}",
+                cause.getMessage());
+        for (Map.Entry<String, ArrayDeque<Submission>> entry : submissionsByDocument.entrySet()) {
+            for (Submission submission : entry.getValue()) {
+                submission.fail(entry.getKey(), cause);
+            }
+        }
+    }
+
+    private void complete(Submission submission) {
+        ForkJoinPool.commonPool().execute(() -> {
+            submissionLatency.recordSince(submission.submitTimeInNanos);
+            if (submission.failedDocuments == null) {
+                submission.future.complete(null);
+            } else {
+                submission.future.completeExceptionally(
+                        new DocumentsFailedToImportException(submission.failedDocuments, submission.failureCause));
+            }
+        });
+    }
+}
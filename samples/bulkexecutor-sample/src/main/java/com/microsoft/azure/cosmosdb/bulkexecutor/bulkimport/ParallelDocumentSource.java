@@ -0,0 +1,147 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Base class of document sources which build documents on several threads and hand them out in checkpoint batches
+ * through a bounded read-ahead queue, in no particular order.
+ * 
+ * Subclasses submit tasks which put documents into the queue. The source is exhausted once all tasks are done, the
+ * queue is empty and the documents returned by {@link #lastDocuments()} have been handed out. A task may submit
+ * further tasks before it ends.
+ */
+public abstract class ParallelDocumentSource implements AutoCloseable {
+
+    protected final BlockingQueue<String> readAhead;
+
+    private final ExecutorService workers;
+    private final AtomicInteger remainingTasks = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private Queue<String> lastDocuments;
+
+    @FunctionalInterface
+    protected interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * @param threadName The name of the worker threads
+     * @param numberOfThreads The number of worker threads
+     * @param readAheadDocuments The maximum number of documents waiting to be imported
+     */
+    protected ParallelDocumentSource(String threadName, int numberOfThreads, int readAheadDocuments) {
+        this.readAhead = new ArrayBlockingQueue<>(readAheadDocuments);
+        this.workers = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Takes the next batch of documents, waiting for them to be built.
+     * 
+     * @param batchSize The maximum number of documents
+     * @return The documents, fewer than the batch size only at the end of the source, and empty after it
+     * @throws Exception if a task failed
+     */
+    public List<String> nextBatch(int batchSize) throws Exception {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize) {
+            throwIfFailed();
+            if (readAhead.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+
+            if (remainingTasks.get() == 0 && readAhead.isEmpty()) {
+                throwIfFailed();
+                if (lastDocuments == null) {
+                    lastDocuments = new ArrayDeque<>(lastDocuments());
+                }
+                while (batch.size() < batchSize && !lastDocuments.isEmpty()) {
+                    batch.add(lastDocuments.poll());
+                }
+                break;
+            }
+
+            String document = readAhead.poll(100, TimeUnit.MILLISECONDS);
+            if (document != null) {
+                batch.add(document);
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Runs a task on a worker thread. Failures are rethrown by {@link #nextBatch(int)}.
+     */
+    protected final void submit(Task task) {
+        remainingTasks.incrementAndGet();
+        workers.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                remainingTasks.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Called once all tasks are done.
+     * 
+     * @return Documents which could only be built once all tasks were done
+     */
+    protected Collection<String> lastDocuments() {
+        return Collections.emptyList();
+    }
+
+    private void throwIfFailed() throws Exception {
+        Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.microsoft.azure.documentdb.DocumentClientException;
+import com.microsoft.azure.documentdb.PartitionKeyDefinition;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
+
+/**
+ * Typed entry point to the bulk import API which accepts POJOs instead of pre-serialized JSON strings.
+ * 
+ * Documents are consumed from the stream in batches. Each batch is serialized in parallel on a dedicated worker pool
+ * while the previous batch is being imported, so serialization overlaps with the executor's network time.
+ *
+ * @param <T> the document type
+ */
+public class PojoBulkImporter<T> implements AutoCloseable {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(PojoBulkImporter.class);
+
+    private final DocumentBulkExecutor bulkExecutor;
+    private final PojoDocumentSerializer<T> serializer;
+    private final ForkJoinPool serializationPool;
+
+    /**
+     * Creates a typed importer on top of an existing bulk executor.
+     * 
+     * @param bulkExecutor The bulk executor of the target collection
+     * @param partitionKeyDefinition The partition key definition of the target collection
+     * @param partitionKeyExtractor Extracts the partition key value of a document
+     * @param serializationParallelism The number of serialization workers
+     * @param useAfterburner If true, serialization uses generated bytecode instead of reflection
+     */
+    public PojoBulkImporter(DocumentBulkExecutor bulkExecutor, PartitionKeyDefinition partitionKeyDefinition,
+            Function<? super T, ?> partitionKeyExtractor, int serializationParallelism, boolean useAfterburner) {
+
+        Preconditions.checkArgument(bulkExecutor != null, "bulkExecutor cannot be null");
+        Preconditions.checkArgument(serializationParallelism > 0, "serializationParallelism must be positive");
+
+        this.bulkExecutor = bulkExecutor;
+        this.serializer = new PojoDocumentSerializer<>(partitionKeyDefinition, partitionKeyExtractor, useAfterburner);
+        this.serializationPool = new ForkJoinPool(serializationParallelism);
+    }
+
+    /**
+     * Imports all documents of the stream, issuing one bulk import call per batch.
+     * 
+     * @param documents The documents to import
+     * @param batchSize The number of documents passed to each bulk import call
+     * @param isUpsert Whether existing documents are replaced
+     * @param disableAutomaticIdGeneration Whether documents without an id are rejected instead of given a generated one
+     * @return The bulk import response of each batch, in order
+     * @throws DocumentClientException if a bulk import call fails
+     */
+    public List<BulkImportResponse> importAll(Stream<T> documents, int batchSize, boolean isUpsert,
+            boolean disableAutomaticIdGeneration) throws DocumentClientException {
+
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+
+        List<BulkImportResponse> responses = new ArrayList<>();
+        Iterator<T> iterator = documents.iterator();
+
+        CompletableFuture<List<String>> nextBatch = serializeNextBatch(iterator, batchSize);
+        while (nextBatch != null) {
+
+            List<String> serializedBatch = join(nextBatch);
+
+            // Start serializing the following batch before handing the current one to the executor
+            nextBatch = iterator.hasNext() ? serializeNextBatch(iterator, batchSize) : null;
+
+            LOGGER.debug("Importing batch of {} documents", serializedBatch.size());
+            responses.add(bulkExecutor.importAll(serializedBatch, isUpsert, disableAutomaticIdGeneration, null));
+        }
+
+        return responses;
+    }
+
+    @Override
+    public void close() {
+        serializationPool.shutdown();
+    }
+
+    private CompletableFuture<List<String>> serializeNextBatch(Iterator<T> iterator, int batchSize) {
+
+        if (!iterator.hasNext()) {
+            return null;
+        }
+
+        List<T> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && iterator.hasNext()) {
+            batch.add(iterator.next());
+        }
+
+        // A parallel stream started from a task of the pool runs on that pool rather than the common pool
+        return CompletableFuture.supplyAsync(
+                () -> batch.parallelStream().map(serializer::serialize).collect(Collectors.toList()),
+                serializationPool);
+    }
+
+    private static <R> R join(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.std.BeanSerializerBase;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import com.google.common.base.Preconditions;
+import com.microsoft.azure.documentdb.PartitionKeyDefinition;
+
+/**
+ * Serializes POJOs into the JSON strings expected by the bulk import API.
+ * 
+ * A single {@link ObjectMapper} is shared by all callers and one {@link ObjectWriter} is cached per document class,
+ * so no serializer lookup or mapper construction happens per document. Beans which expose the partition key property
+ * are written straight to a string, after checking the property against the extracted value. Other documents
+ * ({@code Map} documents, {@code @JsonAnyGetter}, custom serializers) are serialized into an {@link ObjectNode} so that
+ * the partition key property can be added. Instances are thread safe and are meant to be used concurrently by the
+ * serialization workers of {@link PojoBulkImporter}.
+ *
+ * @param <T> the document type
+ */
+public class PojoDocumentSerializer<T> {
+
+    private final ObjectMapper mapper;
+    private final String partitionKeyName;
+    private final Function<? super T, ?> partitionKeyExtractor;
+    private final ObjectWriter writer;
+    private final ConcurrentMap<Class<?>, ClassSerializer> serializers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a serializer for documents of a collection.
+     * 
+     * @param partitionKeyDefinition The partition key definition of the target collection
+     * @param partitionKeyExtractor Extracts the partition key value of a document
+     * @param useAfterburner If true, property access is done through generated bytecode instead of reflection
+     */
+    public PojoDocumentSerializer(PartitionKeyDefinition partitionKeyDefinition,
+            Function<? super T, ?> partitionKeyExtractor, boolean useAfterburner) {
+
+        Preconditions.checkArgument(partitionKeyDefinition != null && partitionKeyDefinition.getPaths().size() > 0,
+                "there is no partition key definition");
+        Preconditions.checkArgument(partitionKeyExtractor != null, "partitionKeyExtractor cannot be null");
+
+        Collection<String> partitionKeyPath = partitionKeyDefinition.getPaths();
+        Preconditions.checkArgument(partitionKeyPath.size() == 1,
+                "the command line benchmark tool only support simple partition key path");
+
+        // Note: As in DataMigrationDocumentSource, this assumes a simple (non-nested) partition key.
+        this.partitionKeyName = partitionKeyPath.iterator().next().replaceFirst("^/", "");
+        this.partitionKeyExtractor = partitionKeyExtractor;
+
+        this.mapper = new ObjectMapper();
+        this.mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        if (useAfterburner) {
+            this.mapper.registerModule(new AfterburnerModule());
+        }
+        this.writer = mapper.writer();
+    }
+
+    /**
+     * Serializes a document, adding the partition key property if the document does not already contain it.
+     * 
+     * @param document The document to serialize
+     * @return The JSON representation of the document
+     * @throws IllegalArgumentException if the document does not serialize to a JSON object, or if it contains a
+     *             partition key property that differs from the extracted partition key value
+     */
+    public String serialize(T document) {
+
+        Object partitionKeyValue = partitionKeyExtractor.apply(document);
+        if (partitionKeyValue == null) {
+            throw new IllegalArgumentException("partition key value cannot be null for document " + document);
+        }
+
+        ClassSerializer classSerializer = serializers.computeIfAbsent(document.getClass(), ClassSerializer::new);
+        try {
+            if (classSerializer.partitionKeyProperty != null) {
+                Object declaredPartitionKey = classSerializer.partitionKeyProperty.get(document);
+                if (!sameValue(declaredPartitionKey, partitionKeyValue)) {
+                    throw mismatch(document, declaredPartitionKey, partitionKeyValue);
+                }
+                return classSerializer.writer.writeValueAsString(document);
+            }
+            return serializeTree(document, partitionKeyValue);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("failed to serialize document of type " + document.getClass().getName(), e);
+        }
+    }
+
+    private String serializeTree(T document, Object partitionKeyValue) throws JsonProcessingException {
+        JsonNode tree = mapper.valueToTree(document);
+        if (!(tree instanceof ObjectNode)) {
+            throw new IllegalArgumentException(String.format("document of type %s serializes to %s, not to a JSON object",
+                    document.getClass().getName(), tree == null ? "null" : tree.getNodeType()));
+        }
+
+        ObjectNode documentNode = (ObjectNode) tree;
+        JsonNode partitionKeyNode = mapper.valueToTree(partitionKeyValue);
+        JsonNode declaredPartitionKey = documentNode.get(partitionKeyName);
+        if (declaredPartitionKey == null) {
+            documentNode.set(partitionKeyName, partitionKeyNode);
+        } else if (!sameValue(declaredPartitionKey, partitionKeyNode)) {
+            throw mismatch(document, declaredPartitionKey, partitionKeyNode);
+        }
+        return writer.writeValueAsString(documentNode);
+    }
+
+    private IllegalArgumentException mismatch(T document, Object declaredPartitionKey, Object partitionKeyValue) {
+        return new IllegalArgumentException(String.format(
+                "document of type %s declares %s=%s but the partition key extractor returned %s",
+                document.getClass().getName(), partitionKeyName, declaredPartitionKey, partitionKeyValue));
+    }
+
+    private boolean sameValue(Object declared, Object extracted) {
+        if (declared == null) {
+            return false;
+        }
+        if (declared.equals(extracted)) {
+            return true;
+        }
+        // An int field and a long extractor result are the same partition key value
+        if (declared instanceof Number && extracted instanceof Number) {
+            try {
+                return new BigDecimal(declared.toString()).compareTo(new BigDecimal(extracted.toString())) == 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        // An enum field and its name, for example, only compare equal as JSON
+        return sameValue((JsonNode) mapper.valueToTree(declared), (JsonNode) mapper.valueToTree(extracted));
+    }
+
+    private static boolean sameValue(JsonNode left, JsonNode right) {
+        // An int field and a long extractor result are the same partition key value
+        if (left.isNumber() && right.isNumber()) {
+            return left.decimalValue().compareTo(right.decimalValue()) == 0;
+        }
+        return left.equals(right);
+    }
+
+    private class ClassSerializer {
+
+        private final ObjectWriter writer;
+
+        // The bean property holding the partition key, or null if the class is not a bean exposing it
+        private final BeanPropertyWriter partitionKeyProperty;
+
+        ClassSerializer(Class<?> documentClass) {
+            this.writer = mapper.writerFor(documentClass);
+
+            BeanPropertyWriter property = null;
+            try {
+                JsonSerializer<Object> serializer = mapper.getSerializerProviderInstance()
+                        .findValueSerializer(documentClass);
+                if (serializer instanceof BeanSerializerBase) {
+                    Iterator<PropertyWriter> properties = ((BeanSerializerBase) serializer).properties();
+                    while (properties.hasNext()) {
+                        PropertyWriter candidate = properties.next();
+                        if (candidate instanceof BeanPropertyWriter && candidate.getName().equals(partitionKeyName)) {
+                            property = (BeanPropertyWriter) candidate;
+                            break;
+                        }
+                    }
+                }
+            } catch (JsonMappingException e) {
+                // Left to the tree path, which reports the failure for each document
+            }
+            this.partitionKeyProperty = property;
+        }
+    }
+}
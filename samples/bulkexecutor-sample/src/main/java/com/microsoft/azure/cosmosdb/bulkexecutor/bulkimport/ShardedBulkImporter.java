@@ -0,0 +1,253 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.deadletter.DeadLetterWriter;
+import com.microsoft.azure.documentdb.DocumentClient;
+import com.microsoft.azure.documentdb.DocumentCollection;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportFailure;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor.Builder;
+
+public class ShardedBulkImporter {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(ShardedBulkImporter.class);
+
+    /**
+     * In this sample, the checkpoints of BulkImporter are shared out among several worker processes, on one or more
+     * hosts, which are all started with the same arguments and -leaseDirectory. Each worker repeatedly leases a
+     * checkpoint through a {@link FileLeaseStore}, imports it while renewing the lease, and records it as completed.
+     * Checkpoints leased by a worker which died are taken over once the lease expires, and workers exit when every
+     * checkpoint is completed.
+     * 
+     * A checkpoint which fails is released to be retried after a delay, doubling with each attempt. Once it has been
+     * attempted -maxCheckpointAttempts times, counting those of workers which died, it is recorded as failed and its
+     * failed documents are spilled to -deadLetterDirectory if set. Workers then exit with an error once every
+     * checkpoint is completed or failed.
+     * 
+     * Since a worker may die after importing part of a checkpoint, documents are upserted so that checkpoints can be
+     * imported again safely.
+     * 
+     * @param cfg Command line configuration settings passed
+     * @throws Exception
+     * @throws IllegalStateException if any checkpoint failed
+     */
+    public void executeShardedBulkImport(CmdLineConfiguration cfg) throws Exception {
+
+        Preconditions.checkArgument(cfg.getLeaseDirectory() != null, "-leaseDirectory is required for the shardedimport operation");
+        Preconditions.checkArgument(cfg.getLeaseDurationInSeconds() > 0, "-leaseDurationInSeconds must be positive");
+        Preconditions.checkArgument(cfg.getMaxCheckpointAttempts() > 0, "-maxCheckpointAttempts must be positive");
+
+        String workerId = cfg.getWorkerId() != null ? cfg.getWorkerId() : ManagementFactory.getRuntimeMXBean().getName();
+        Duration leaseDuration = Duration.ofSeconds(cfg.getLeaseDurationInSeconds());
+        FileLeaseStore leaseStore = new FileLeaseStore(Paths.get(cfg.getLeaseDirectory()), workerId, leaseDuration);
+
+        try (DocumentClient client = Utilities.documentClientFrom(cfg)) {
+
+            // Set client's retry options high for initialization
+            client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(120);
+            client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(100);
+
+            DocumentCollection collection = null;
+            if(cfg.getShouldCreateCollection()) {
+                collection = Utilities.createEmptyCollectionIfNotExists(client, cfg.getDatabaseId(), cfg.getCollectionId(),
+                        cfg.getPartitionKey(), cfg.getCollectionThroughput());
+            }
+            else {
+                // This assumes database and collection already exist
+                String collectionLink = String.format("/dbs/%s/colls/%s", cfg.getDatabaseId(), cfg.getCollectionId());
+                collection = client.readCollection(collectionLink, null).getResource();
+            }
+
+            int offerThroughput = Utilities.getOfferThroughput(client, collection);
+
+            Builder bulkExecutorBuilder = DocumentBulkExecutor.builder().from(client, cfg.getDatabaseId(),
+                    cfg.getCollectionId(), collection.getPartitionKey(), offerThroughput);
+
+            // Instantiate bulk executor
+            ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor();
+            try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build();
+                    DeadLetterWriter deadLetterWriter = DeadLetterWriter.openIfSpecified(cfg.getDeadLetterDirectory(),
+                            cfg.getDeadLetterSegmentSizeInMB())) {
+
+                // Set retries to 0 to pass control to bulk executor
+                client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(0);
+                client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(0);
+
+                KeyDistribution keyDistribution = KeyDistributions.fromConfiguration(cfg);
+
+                Stopwatch totalWatch = Stopwatch.createStarted();
+                int numberOfCheckpointsImported = 0;
+                int numberOfCheckpointsFailed = 0;
+                long totalNumberOfDocumentsImported = 0;
+                double totalRequestCharge = 0;
+
+                while (!leaseStore.allFinished(cfg.getNumberOfCheckpoints())) {
+
+                    FileLeaseStore.Lease lease = leaseStore.tryAcquire(cfg.getNumberOfCheckpoints());
+                    if (lease == null) {
+                        // Remaining checkpoints are leased by other workers, or waiting to be retried
+                        Thread.sleep(Math.max(1000, leaseDuration.toMillis() / 4));
+                        continue;
+                    }
+
+                    // Workers which died while importing the checkpoint used up the remaining attempts
+                    if (lease.getAttempt() > cfg.getMaxCheckpointAttempts()) {
+                        System.err.println("Checkpoint " + lease.getCheckpoint() + " was attempted "
+                                + cfg.getMaxCheckpointAttempts() + " times without completing, recording it as failed");
+                        lease.fail();
+                        numberOfCheckpointsFailed++;
+                        continue;
+                    }
+
+                    AtomicBoolean leaseLost = new AtomicBoolean();
+                    ScheduledFuture<?> renewal = leaseRenewer.scheduleAtFixedRate(() -> {
+                        try {
+                            if (!leaseLost.get() && !lease.renew()) {
+                                leaseLost.set(true);
+                                LOGGER.warn("Worker {} lost the lease of checkpoint {}", workerId, lease.getCheckpoint());
+                            }
+                        } catch (Exception e) {
+                            LOGGER.warn("Worker {} failed to renew the lease of checkpoint {}", workerId,
+                                    lease.getCheckpoint(), e);
+                        }
+                    }, leaseDuration.toMillis() / 3, leaseDuration.toMillis() / 3, TimeUnit.MILLISECONDS);
+
+                    BulkImportResponse bulkImportResponse;
+                    try {
+                        long prefix = (long) lease.getCheckpoint() * cfg.getNumberOfDocumentsForEachCheckpoint();
+                        Collection<String> documents = DataMigrationDocumentSource.loadDocuments(
+                                cfg.getNumberOfDocumentsForEachCheckpoint(), collection.getPartitionKey(), prefix,
+                                keyDistribution);
+
+                        bulkImportResponse = bulkExecutor.importAll(documents, true, true, null);
+                    } finally {
+                        renewal.cancel(false);
+                    }
+
+                    // The bulk call cannot be interrupted, so a checkpoint whose lease was lost is abandoned once it
+                    // returns: the new owner imports it again, and records it as completed
+                    if (leaseLost.get() || !lease.isHeld()) {
+                        System.err.println("Worker " + workerId + " lost the lease of checkpoint " + lease.getCheckpoint()
+                                + ", abandoning it to its new owner");
+                        continue;
+                    }
+
+                    totalNumberOfDocumentsImported += bulkImportResponse.getNumberOfDocumentsImported();
+                    totalRequestCharge += bulkImportResponse.getTotalRequestUnitsConsumed();
+
+                    System.out.println("Worker " + workerId + " imported checkpoint " + lease.getCheckpoint() + ": "
+                            + bulkImportResponse.getNumberOfDocumentsImported() + " documents in "
+                            + bulkImportResponse.getTotalTimeTaken().toMillis() + " milli seconds, "
+                            + bulkImportResponse.getTotalRequestUnitsConsumed() + " request units");
+
+                    if (bulkImportResponse.getNumberOfDocumentsImported() != cfg.getNumberOfDocumentsForEachCheckpoint()) {
+                        for (BulkImportFailure eachBulkImportFailure : bulkImportResponse.getFailedImports()) {
+                            System.out.println(
+                                "Number of failures corresponding to exception of type: " +
+                                eachBulkImportFailure.getBulkImportFailureException().getClass().getName() +
+                                " = " +
+                                eachBulkImportFailure.getDocumentsFailedToImport().size());
+                        }
+
+                        if (lease.getAttempt() >= cfg.getMaxCheckpointAttempts()) {
+                            System.err.println("Some documents failed to get inserted in checkpoint "
+                                    + lease.getCheckpoint() + " after " + lease.getAttempt()
+                                    + " attempts, recording it as failed");
+                            if (deadLetterWriter != null) {
+                                deadLetterWriter.append(bulkImportResponse, lease.getCheckpoint());
+                            }
+                            lease.fail();
+                            numberOfCheckpointsFailed++;
+                            continue;
+                        }
+
+                        // Hand the checkpoint back so it is retried, by this worker or another one
+                        Duration retryDelay = retryDelay(cfg, lease.getAttempt());
+                        System.err.println("Some documents failed to get inserted in checkpoint " + lease.getCheckpoint()
+                                + ", releasing it to be retried in " + retryDelay.getSeconds() + " seconds");
+                        lease.release(retryDelay);
+                        continue;
+                    }
+
+                    lease.complete();
+                    numberOfCheckpointsImported++;
+                }
+
+                totalWatch.stop();
+
+                // Print statistics of this worker
+                System.out.println(
+                        "##########################################################################################");
+                System.out.println("Worker: " + workerId);
+                System.out.println("Number of checkpoints imported by this worker: " + numberOfCheckpointsImported);
+                System.out.println("Number of checkpoints recorded as failed by this worker: " + numberOfCheckpointsFailed);
+                System.out.println(
+                        "Total import time in milli seconds measured by stopWatch: " + totalWatch.elapsed().toMillis());
+                System.out.println("Total Number of documents inserted " + totalNumberOfDocumentsImported);
+                System.out.println("Total request unit consumed: " + totalRequestCharge);
+                System.out.println(
+                        "Average RUs/second:" + totalRequestCharge / (totalWatch.elapsed().toMillis() * 0.001));
+                System.out.println("Average #Inserts/second: "
+                        + totalNumberOfDocumentsImported / (totalWatch.elapsed().toMillis() * 0.001));
+                System.out.println(
+                        "##########################################################################################");
+            } finally {
+                leaseRenewer.shutdownNow();
+            }
+        }
+
+        List<Integer> failedCheckpoints = leaseStore.failedCheckpoints(cfg.getNumberOfCheckpoints());
+        if (!failedCheckpoints.isEmpty()) {
+            throw new IllegalStateException("checkpoints " + failedCheckpoints + " failed after "
+                    + cfg.getMaxCheckpointAttempts() + " attempts, see " + cfg.getLeaseDirectory()
+                    + (cfg.getDeadLetterDirectory() != null ? " and " + cfg.getDeadLetterDirectory() : ""));
+        }
+    }
+
+    /*
+     * Doubles the retry delay with each failed attempt. The lease store caps it at the lease duration.
+     */
+    private static Duration retryDelay(CmdLineConfiguration cfg, int attempt) {
+        return Duration.ofSeconds(cfg.getCheckpointRetryDelayInSeconds()).multipliedBy(1L << Math.min(attempt - 1, 20));
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Finds the frame offsets of a zstd file, such as one written by pzstd or by zstd with a frame per block of input, so
+ * that its frames can be decompressed on several threads.
+ * 
+ * Unlike gzip members, zstd frames can be walked without decompressing them: each block header carries the compressed
+ * size of the block, so only the frame and block headers are read.
+ */
+final class ZstdFrameScanner {
+
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+    private static final int SKIPPABLE_FRAME_MAGIC_MASK = 0xFFFFFFF0;
+    private static final int SKIPPABLE_FRAME_MAGIC = 0x184D2A50;
+
+    private ZstdFrameScanner() {
+    }
+
+    /**
+     * @param channel The file
+     * @return The offsets of all frames of the file, including skippable ones, in order
+     * @throws IOException if the file cannot be read or is not a zstd file
+     */
+    static List<Long> frameOffsets(FileChannel channel) throws IOException {
+        List<Long> frameOffsets = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+
+        while (position < size) {
+            frameOffsets.add(position);
+            int magic = read(channel, position, 4).getInt();
+            position += 4;
+
+            if ((magic & SKIPPABLE_FRAME_MAGIC_MASK) == SKIPPABLE_FRAME_MAGIC) {
+                position += 4 + (read(channel, position, 4).getInt() & 0xffffffffL);
+                continue;
+            }
+            if (magic != FRAME_MAGIC) {
+                throw new ZipException("no zstd frame at offset " + (position - 4));
+            }
+
+            int descriptor = read(channel, position, 1).get() & 0xff;
+            int contentSizeFlag = descriptor >>> 6;
+            boolean singleSegment = (descriptor & 0x20) != 0;
+            boolean hasChecksum = (descriptor & 0x04) != 0;
+            int dictionaryIdFlag = descriptor & 0x03;
+
+            position += 1
+                    + (singleSegment ? 0 : 1)
+                    + new int[] { 0, 1, 2, 4 }[dictionaryIdFlag]
+                    + new int[] { singleSegment ? 1 : 0, 2, 4, 8 }[contentSizeFlag];
+
+            boolean lastBlock = false;
+            while (!lastBlock) {
+                ByteBuffer blockHeader = read(channel, position, 3);
+                int header = (blockHeader.get() & 0xff) | (blockHeader.get() & 0xff) << 8
+                        | (blockHeader.get() & 0xff) << 16;
+                lastBlock = (header & 1) != 0;
+                int blockType = (header >>> 1) & 3;
+                int blockSize = header >>> 3;
+                if (blockType == 3) {
+                    throw new ZipException("reserved zstd block type at offset " + position);
+                }
+                // An RLE block stores its repeated byte only
+                position += 3 + (blockType == 1 ? 1 : blockSize);
+            }
+            if (hasChecksum) {
+                position += 4;
+            }
+        }
+        return frameOffsets;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("zstd file is truncated at offset " + position);
+            }
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -26,13 +26,28 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
 import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
 import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.DatasetSnapshot;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistribution;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistributions;
+import com.microsoft.azure.cosmosdb.bulkexecutor.deadletter.DeadLetterWriter;
+import com.microsoft.azure.cosmosdb.bulkexecutor.deadletter.UpdateOperations;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.BulkFailureEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.CheckpointEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.DocumentBuildEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.ExecutorCallEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.HistogramLog;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.LatencyRecorder;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.Pacer;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.WarmupPhase;
 import com.microsoft.azure.documentdb.DocumentClient;
 import com.microsoft.azure.documentdb.DocumentCollection;
 import com.microsoft.azure.documentdb.bulkexecutor.BulkImportFailure;
@@ -87,20 +102,29 @@ public class BulkUpdater {
 			Builder bulkExecutorBuilder = DocumentBulkExecutor.builder().from(client, cfg.getDatabaseId(),
 					cfg.getCollectionId(), collection.getPartitionKey(), offerThroughput);
 
+			WarmupPhase warmupPhase = new WarmupPhase("updateAll", cfg.getWarmupBatches(),
+					cfg.getWarmupDurationInSeconds());
+			Stopwatch initializationWatch = Stopwatch.createStarted();
+
 			// Instantiate bulk executor
-			try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build()) {
+			try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build();
+					HistogramLog histogramLog = HistogramLog.openIfSpecified(cfg.getLatencyHistogramLog());
+					DeadLetterWriter deadLetterWriter = DeadLetterWriter.openIfSpecified(cfg.getDeadLetterDirectory(),
+							cfg.getDeadLetterSegmentSizeInMB());
+					DatasetSnapshot datasetSnapshot = DatasetSnapshot.openIfSpecified(cfg.getDatasetSnapshot())) {
 
 				// Set retries to 0 to pass control to bulk executor
 				client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(0);
 				client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(0);
+				warmupPhase.setInitializationTime(initializationWatch.elapsed().toMillis());
 
 				// Create the update operations list
 				
-	            // Set operation
-	            SetUpdateOperation<String> f0Update = new SetUpdateOperation<>("f0","UpdatedDocValue");
+	            // Set operation, created through UpdateOperations so that failed update items can be dead lettered
+	            SetUpdateOperation<String> f0Update = UpdateOperations.set("f0","UpdatedDocValue");
 	            
 	            // Unset Operation
-	            UnsetUpdateOperation f1Update = new UnsetUpdateOperation("f1");
+	            UnsetUpdateOperation f1Update = UpdateOperations.unset("f1");
 	            
 	            // Note: Add other update operations if needed.
 	            
@@ -113,22 +137,89 @@ public class BulkUpdater {
 				double totalRequestCharge = 0;
 				long totalTimeInMillis = 0;
 				long totalNumberOfDocumentsUpdated = 0;
+				long totalNumberOfUpdateItemsDeadLettered = 0;
+
+				// Derive partition key values the same way BulkImporter generated them
+				KeyDistribution keyDistribution = KeyDistributions.fromConfiguration(cfg);
+				if (datasetSnapshot != null) {
+					datasetSnapshot.checkHolds(cfg.getNumberOfCheckpoints(), cfg.getNumberOfDocumentsForEachCheckpoint());
+				}
+
+				// Warm up by applying the update items of the measured checkpoints in turn, taken from the dataset snapshot
+				// if there is one. The update operations are idempotent, so the measured run ends with the same documents.
+				while (warmupPhase.nextBatch()) {
+					int warmupCheckpoint = warmupPhase.getBatchIndex() % Math.max(1, cfg.getNumberOfCheckpoints());
+					List<UpdateItem> updateItems;
+					if (datasetSnapshot != null) {
+						updateItems = new ArrayList<>(cfg.getNumberOfDocumentsForEachCheckpoint());
+						for (Pair<String, String> pkIdPair : datasetSnapshot.loadPartitionKeyIdPairs(warmupCheckpoint)) {
+							updateItems.add(new UpdateItem(pkIdPair.getRight(), pkIdPair.getLeft(), updateOperations));
+						}
+					} else {
+						long warmupPrefix = (long) warmupCheckpoint * cfg.getNumberOfDocumentsForEachCheckpoint();
+						updateItems = LongStream
+								.range(warmupPrefix, warmupPrefix + cfg.getNumberOfDocumentsForEachCheckpoint())
+								.mapToObj(id -> new UpdateItem(Long.toString(id), keyDistribution.partitionKeyFor(id), updateOperations))
+								.collect(Collectors.toList());
+					}
+
+					long warmupStartTime = System.nanoTime();
+					BulkUpdateResponse bulkUpdateResponse = bulkExecutor.updateAll(updateItems, null);
+					warmupPhase.record(warmupStartTime, bulkUpdateResponse.getNumberOfDocumentsUpdated(),
+							bulkUpdateResponse.getTotalRequestUnitsConsumed());
+				}
+
+				// Executor call latency is the service time of updateAll, checkpoint latency also includes update item
+				// generation and, when paced, any delay behind the checkpoint's scheduled start
+				LatencyRecorder executorCallLatency = new LatencyRecorder("updateAll");
+				LatencyRecorder checkpointLatency = new LatencyRecorder("checkpoint");
+				Pacer pacer = new Pacer(cfg.getTargetCheckpointsPerSecond());
 	            
 				for (int i = 0; i < cfg.getNumberOfCheckpoints(); i++) {
 
+					long checkpointStartTime = pacer.acquire();
+
+					CheckpointEvent checkpointEvent = new CheckpointEvent("update", i);
+					checkpointEvent.begin();
+
 					// Generate update items				
 					long prefix = i * cfg.getNumberOfDocumentsForEachCheckpoint();
 					
+					DocumentBuildEvent documentBuildEvent = new DocumentBuildEvent("update");
+					documentBuildEvent.begin();
 					List<UpdateItem> updateItems = new ArrayList<>(cfg.getNumberOfDocumentsForEachCheckpoint());
-					IntStream.range(0, cfg.getNumberOfDocumentsForEachCheckpoint()).mapToObj(j -> {
-						
-						return new UpdateItem(Long.toString(prefix + j), Long.toString(prefix + j), updateOperations);
-					}).collect(Collectors.toCollection(() -> updateItems));
+					if (datasetSnapshot != null) {
+						for (Pair<String, String> pkIdPair : datasetSnapshot.loadPartitionKeyIdPairs(i)) {
+							updateItems.add(new UpdateItem(pkIdPair.getRight(), pkIdPair.getLeft(), updateOperations));
+						}
+					} else {
+						IntStream.range(0, cfg.getNumberOfDocumentsForEachCheckpoint()).mapToObj(j -> {
+							
+							return new UpdateItem(Long.toString(prefix + j), keyDistribution.partitionKeyFor(prefix + j), updateOperations);
+						}).collect(Collectors.toCollection(() -> updateItems));
+					}
+					documentBuildEvent.setDocumentCount(updateItems.size());
+					documentBuildEvent.commit();
 					
 					// Execute bulk update API				
 					totalWatch.start();
+					ExecutorCallEvent executorCallEvent = new ExecutorCallEvent("updateAll", updateItems.size());
+					executorCallEvent.begin();
+					long executorCallStartTime = System.nanoTime();
 					BulkUpdateResponse bulkUpdateResponse = bulkExecutor.updateAll(updateItems, null);
+					executorCallLatency.recordSince(executorCallStartTime);
+					executorCallEvent.setResult(bulkUpdateResponse.getNumberOfDocumentsUpdated(),
+							bulkUpdateResponse.getTotalRequestUnitsConsumed());
+					executorCallEvent.commit();
 					totalWatch.stop();
+					checkpointLatency.recordSince(checkpointStartTime);
+
+					checkpointEvent.setDocumentCount(updateItems.size());
+					checkpointEvent.commit();
+
+					if (histogramLog != null) {
+						histogramLog.append(executorCallLatency, checkpointLatency);
+					}
 
 					// Print statistics for this checkpoint				
 					System.out.println(
@@ -162,28 +253,63 @@ public class BulkUpdater {
 
                         System.out.println("Number of bulk update failures = " + bulkUpdateResponse.getFailedUpdates().size());
                         for (BulkUpdateFailure eachBulkUpdateFailure : bulkUpdateResponse.getFailedUpdates()) {
+                            new BulkFailureEvent("update", i, eachBulkUpdateFailure.getBulkUpdateFailureException().getClass(),
+                                    eachBulkUpdateFailure.getFailedUpdateItems().size()).commit();
                             System.out.println(
                                 "Number of failures corresponding to exception of type: " + 
                                 eachBulkUpdateFailure.getBulkUpdateFailureException().getClass().getName() + 
                                 " = " + 
                                 eachBulkUpdateFailure.getFailedUpdateItems().size());
                         }
-						break;
+
+						// Without a dead letter directory the failed update items are lost, so stop here. With one,
+						// spill them for a later replay and carry on.
+						if (deadLetterWriter == null) {
+							break;
+						}
+						int numberOfUpdateItemsDeadLettered = deadLetterWriter.append(bulkUpdateResponse, i);
+						totalNumberOfUpdateItemsDeadLettered += numberOfUpdateItemsDeadLettered;
+						System.out.println("Number of update items written to dead letter directory: "
+								+ numberOfUpdateItemsDeadLettered);
+
+						// Update items neither applied nor reported as failed cannot be replayed, so stop
+						long numberOfUpdateItemsUnaccounted = updateItems.size()
+								- bulkUpdateResponse.getNumberOfDocumentsUpdated() - numberOfUpdateItemsDeadLettered;
+						if (numberOfUpdateItemsUnaccounted != 0) {
+							System.err.println(numberOfUpdateItemsUnaccounted
+									+ " update items were neither applied nor reported as failed in this checkpoint.");
+							break;
+						}
 					}
 				}
 
+				if (warmupPhase.isEnabled()) {
+					System.out.println(
+							"##########################################################################################");
+					warmupPhase.print();
+				}
+
 				// Print average statistics across checkpoints			
 				System.out.println(
 						"##########################################################################################");
+				if (warmupPhase.isEnabled()) {
+					System.out.println("Steady state, excluding warm-up:");
+				}
 				System.out.println(
 						"Total update time in milli seconds measured by stopWatch: " + totalWatch.elapsed().toMillis());
 				System.out.println("Total update time in milli seconds measured by api : " + totalTimeInMillis);
 				System.out.println("Total Number of documents updated " + totalNumberOfDocumentsUpdated);
+				if (deadLetterWriter != null) {
+					System.out.println("Total Number of update items written to dead letter directory: "
+							+ totalNumberOfUpdateItemsDeadLettered);
+				}
 				System.out.println("Total request unit consumed: " + totalRequestCharge);
 				System.out.println(
 						"Average RUs/second:" + totalRequestCharge / (totalWatch.elapsed().toMillis() * 0.001));
 				System.out.println("Average #Updates/second: "
 						+ totalNumberOfDocumentsUpdated / (totalWatch.elapsed().toMillis() * 0.001));
+				executorCallLatency.print();
+				checkpointLatency.print();
 			}
 		}
 	}
@@ -0,0 +1,418 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Disk-backed index of documents, keyed by partition key and id, to per-field content hashes, used to diff a snapshot
+ * against the previous run.
+ * 
+ * The index is split into a fixed number of shards by id, so that a single shard fits in memory however many ids the
+ * collection holds, and so that all the partition keys an id is found under are in the same shard. Each shard file is
+ * a sequence of records: the id, the partition key value as canonical JSON, the number of fields, then for each field
+ * a varint field number and a 64-bit hash of the field's JSON value. The partition key value is kept as is rather than
+ * hashed, since a document which moved to another partition key is deleted under the previous one. Field names are
+ * numbered by a dictionary shared by all shards, which keeps records compact for collections with a stable schema.
+ */
+class DocumentHashIndex {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Indexes written before records held the partition key cannot be read
+    private static final String FORMAT_VERSION = "2";
+
+    // Properties set by the service, any other field name is user data even if it starts with an underscore
+    private static final Set<String> SYSTEM_PROPERTIES = ImmutableSet.of("_rid", "_self", "_etag", "_ts", "_attachments");
+
+    private final Path directory;
+    private final int numberOfShards;
+    private final String partitionKeyName;
+
+    private final Map<String, Integer> fieldNumbers = new HashMap<>();
+    private final List<String> fieldNames = new ArrayList<>();
+
+    DocumentHashIndex(Path directory, int numberOfShards, String partitionKeyName) throws IOException {
+        this.directory = directory;
+        this.numberOfShards = numberOfShards;
+        this.partitionKeyName = partitionKeyName;
+
+        Files.createDirectories(directory);
+
+        // The shard of an id must not change between runs
+        Path metadataPath = directory.resolve("index.properties");
+        Properties metadata = new Properties();
+        if (Files.exists(metadataPath)) {
+            try (InputStream in = Files.newInputStream(metadataPath)) {
+                metadata.load(in);
+            }
+            if (!FORMAT_VERSION.equals(metadata.getProperty("formatVersion"))) {
+                throw new IllegalStateException("index at " + directory + " was written by an earlier version, which "
+                        + "did not record partition keys; delete it, the next run then upserts every document");
+            }
+            int existingNumberOfShards = Integer.parseInt(metadata.getProperty("numberOfShards"));
+            if (existingNumberOfShards != numberOfShards) {
+                throw new IllegalStateException("index at " + directory + " was built with " + existingNumberOfShards
+                        + " shards, not " + numberOfShards);
+            }
+        } else {
+            metadata.setProperty("formatVersion", FORMAT_VERSION);
+            metadata.setProperty("numberOfShards", Integer.toString(numberOfShards));
+            try (OutputStream out = Files.newOutputStream(metadataPath)) {
+                metadata.store(out, "Snapshot diff index");
+            }
+        }
+
+        Path dictionaryPath = directory.resolve("fields.bin");
+        if (Files.exists(dictionaryPath)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dictionaryPath)))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    fieldNumberOf(in.readUTF());
+                }
+            }
+        }
+    }
+
+    int getNumberOfShards() {
+        return numberOfShards;
+    }
+
+    int shardOf(String id) {
+        return Math.floorMod(id.hashCode(), numberOfShards);
+    }
+
+    String fieldNameOf(int fieldNumber) {
+        return fieldNames.get(fieldNumber);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the document has no id or no partition key
+     */
+    DocumentKey keyOf(ObjectNode document) {
+        JsonNode id = document.get("id");
+        if (id == null || !id.isTextual()) {
+            throw new IllegalArgumentException("document has no id: " + document);
+        }
+        JsonNode partitionKeyValue = document.get(partitionKeyName);
+        if (partitionKeyValue == null) {
+            throw new IllegalArgumentException("document " + id.asText() + " has no partition key " + partitionKeyName);
+        }
+        return new DocumentKey(canonical(partitionKeyValue), id.asText());
+    }
+
+    /**
+     * @param partitionKeyValue The partition key value, as given to the bulk executor
+     */
+    static DocumentKey keyOf(String id, Object partitionKeyValue) {
+        return new DocumentKey(canonical(MAPPER.valueToTree(partitionKeyValue)), id);
+    }
+
+    private static String canonical(JsonNode node) {
+        StringBuilder sb = new StringBuilder();
+        appendCanonical(node, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Hashes the top level fields of a document. The id and the partition key are not hashed, as they make up the key
+     * of the document rather than its content, and neither are system properties. Nested objects are hashed with their
+     * keys sorted, so that a reordering of keys is not reported as a change.
+     */
+    FieldHashes hash(ObjectNode document) {
+        List<long[]> entries = new ArrayList<>(document.size());
+
+        Iterator<Map.Entry<String, JsonNode>> fields = document.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            if (name.equals("id") || name.equals(partitionKeyName) || SYSTEM_PROPERTIES.contains(name)) {
+                continue;
+            }
+
+            StringBuilder canonicalValue = new StringBuilder();
+            appendCanonical(field.getValue(), canonicalValue);
+            long hash = HASH_FUNCTION.hashString(canonicalValue, StandardCharsets.UTF_8).asLong();
+            entries.add(new long[] { fieldNumberOf(name), hash });
+        }
+
+        entries.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        int[] sortedFieldNumbers = new int[entries.size()];
+        long[] hashes = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            sortedFieldNumbers[i] = (int) entries.get(i)[0];
+            hashes[i] = entries.get(i)[1];
+        }
+        return new FieldHashes(sortedFieldNumbers, hashes);
+    }
+
+    /*
+     * Writes a JSON value with the keys of every object in sorted order. Array elements keep their order.
+     */
+    private static void appendCanonical(JsonNode node, StringBuilder sb) {
+        if (node.isObject()) {
+            Map<String, JsonNode> sortedFields = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                sortedFields.put(field.getKey(), field.getValue());
+            }
+
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<String, JsonNode> field : sortedFields.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(TextNode.valueOf(field.getKey()).toString()).append(':');
+                appendCanonical(field.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (node.isArray()) {
+            sb.append('[');
+            for (int i = 0; i < node.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                appendCanonical(node.get(i), sb);
+            }
+            sb.append(']');
+        } else {
+            sb.append(node.toString());
+        }
+    }
+
+    /**
+     * Loads one shard of the index written by the previous run.
+     */
+    Map<DocumentKey, FieldHashes> loadShard(int shard) throws IOException {
+        Map<DocumentKey, FieldHashes> entries = new HashMap<>();
+
+        Path shardPath = shardPath(shard);
+        if (!Files.exists(shardPath)) {
+            return entries;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(shardPath), 1 << 16))) {
+            while (true) {
+                String id;
+                try {
+                    id = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                String partitionKey = in.readUTF();
+
+                int count = readVarint(in);
+                int[] recordFieldNumbers = new int[count];
+                long[] hashes = new long[count];
+                for (int i = 0; i < count; i++) {
+                    recordFieldNumbers[i] = readVarint(in);
+                    hashes[i] = in.readLong();
+                }
+                entries.put(new DocumentKey(partitionKey, id), new FieldHashes(recordFieldNumbers, hashes));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Opens a writer for the new version of a shard. The previous version stays in place until the writer is committed.
+     */
+    ShardWriter openShardWriter(int shard) throws IOException {
+        return new ShardWriter(shard);
+    }
+
+    synchronized void saveFieldDictionary() throws IOException {
+        Path temporaryPath = directory.resolve("fields.bin.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+            out.writeInt(fieldNames.size());
+            for (String name : fieldNames) {
+                out.writeUTF(name);
+            }
+        }
+        Files.move(temporaryPath, directory.resolve("fields.bin"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized int fieldNumberOf(String name) {
+        Integer fieldNumber = fieldNumbers.get(name);
+        if (fieldNumber == null) {
+            fieldNumber = fieldNames.size();
+            fieldNames.add(name);
+            fieldNumbers.put(name, fieldNumber);
+        }
+        return fieldNumber;
+    }
+
+    private Path shardPath(int shard) {
+        return directory.resolve(String.format("shard-%05d.bin", shard));
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Identifies a document: its id is only unique within its logical partition.
+     */
+    static final class DocumentKey {
+
+        // The partition key value as canonical JSON
+        final String partitionKey;
+        final String id;
+
+        DocumentKey(String partitionKey, String id) {
+            this.partitionKey = partitionKey;
+            this.id = id;
+        }
+
+        /**
+         * @return The partition key value, as given to the bulk executor
+         */
+        Object partitionKeyValue() throws IOException {
+            return MAPPER.readValue(partitionKey, Object.class);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DocumentKey)) {
+                return false;
+            }
+            DocumentKey other = (DocumentKey) obj;
+            return id.equals(other.id) && partitionKey.equals(other.partitionKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(partitionKey, id);
+        }
+
+        @Override
+        public String toString() {
+            return "id " + id + " with partition key " + partitionKey;
+        }
+    }
+
+    /**
+     * The per-field content hashes of one document, sorted by field number.
+     */
+    static class FieldHashes {
+
+        final int[] fieldNumbers;
+        final long[] hashes;
+
+        FieldHashes(int[] fieldNumbers, long[] hashes) {
+            this.fieldNumbers = fieldNumbers;
+            this.hashes = hashes;
+        }
+
+        boolean sameAs(FieldHashes other) {
+            return Arrays.equals(fieldNumbers, other.fieldNumbers) && Arrays.equals(hashes, other.hashes);
+        }
+    }
+
+    class ShardWriter implements AutoCloseable {
+
+        private final Path shardPath;
+        private final Path temporaryPath;
+        private final DataOutputStream out;
+
+        private ShardWriter(int shard) throws IOException {
+            this.shardPath = shardPath(shard);
+            this.temporaryPath = shardPath.resolveSibling(shardPath.getFileName() + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath), 1 << 16));
+        }
+
+        void write(DocumentKey key, FieldHashes fieldHashes) throws IOException {
+            out.writeUTF(key.id);
+            out.writeUTF(key.partitionKey);
+            writeVarint(out, fieldHashes.fieldNumbers.length);
+            for (int i = 0; i < fieldHashes.fieldNumbers.length; i++) {
+                writeVarint(out, fieldHashes.fieldNumbers[i]);
+                out.writeLong(fieldHashes.hashes[i]);
+            }
+        }
+
+        /**
+         * Replaces the previous version of the shard.
+         */
+        void commit() throws IOException {
+            out.close();
+            Files.move(temporaryPath, shardPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+}
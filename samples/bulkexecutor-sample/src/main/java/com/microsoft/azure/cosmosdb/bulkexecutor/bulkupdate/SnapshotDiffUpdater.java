@@ -0,0 +1,499 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.DocumentHashIndex.DocumentKey;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.DocumentHashIndex.FieldHashes;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.DocumentHashIndex.ShardWriter;
+import com.microsoft.azure.documentdb.DocumentClient;
+import com.microsoft.azure.documentdb.DocumentCollection;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkDeleteResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportFailure;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkUpdateFailure;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkUpdateResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor.Builder;
+import com.microsoft.azure.documentdb.bulkexecutor.SetUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.UnsetUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateItem;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateOperationBase;
+
+public class SnapshotDiffUpdater {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(SnapshotDiffUpdater.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = MAPPER.getFactory();
+
+    private long numberOfDocumentsUnchanged;
+    private long numberOfDocumentsImported;
+    private long numberOfDocumentsUpdated;
+    private long numberOfDocumentsMoved;
+    private long numberOfDocumentsFailed;
+    private long numberOfDocumentsMissing;
+    private double totalRequestCharge;
+
+    /**
+     * In this sample, a collection is refreshed from an upstream snapshot, a file with one JSON document per line.
+     * Each document is compared against the field hashes recorded by the previous run in a local index:
+     * - Unchanged documents are skipped
+     * - Changed documents are sent to the bulk update API as set operations on changed or added top level fields, and
+     *   unset operations on removed ones
+     * - Documents not in the index are upserted with the bulk import API
+     * 
+     * Documents are keyed by partition key and id. A document whose partition key changed is imported under its new
+     * partition key, then deleted under the previous one. Other documents which are in the index but not in the
+     * snapshot are counted and dropped from the index, they are not deleted from the collection. Documents which fail
+     * keep their previous index entry, so the next run retries them. A snapshot which contains the same id more than
+     * once within a partition key is rejected.
+     * 
+     * @param cfg Command line configuration settings passed
+     * @throws Exception
+     */
+    public void executeSnapshotDiffUpdate(CmdLineConfiguration cfg) throws Exception {
+
+        Preconditions.checkArgument(cfg.getSnapshotFile() != null, "-snapshotFile is required for the diffupdate operation");
+        Preconditions.checkArgument(cfg.getDiffIndexDirectory() != null,
+                "-diffIndexDirectory is required for the diffupdate operation");
+
+        try (DocumentClient client = Utilities.documentClientFrom(cfg)) {
+
+            // Set client's retry options high for initialization
+            client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(120);
+            client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(100);
+
+            DocumentCollection collection = null;
+            if(cfg.getShouldCreateCollection()) {
+                collection = Utilities.createEmptyCollectionIfNotExists(client, cfg.getDatabaseId(), cfg.getCollectionId(),
+                        cfg.getPartitionKey(), cfg.getCollectionThroughput());
+            }
+            else {
+                // This assumes database and collection already exist
+                String collectionLink = String.format("/dbs/%s/colls/%s", cfg.getDatabaseId(), cfg.getCollectionId());
+                collection = client.readCollection(collectionLink, null).getResource();
+            }
+
+            int offerThroughput = Utilities.getOfferThroughput(client, collection);
+
+            Builder bulkExecutorBuilder = DocumentBulkExecutor.builder().from(client, cfg.getDatabaseId(),
+                    cfg.getCollectionId(), collection.getPartitionKey(), offerThroughput);
+
+            // Instantiate bulk executor
+            try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build()) {
+
+                // Set retries to 0 to pass control to bulk executor
+                client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(0);
+                client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(0);
+
+                // Note: This sample assumes a simple (non-nested) partition key
+                String partitionKeyName = collection.getPartitionKey().getPaths().iterator().next().replaceFirst("^/", "");
+
+                Path indexDirectory = Paths.get(cfg.getDiffIndexDirectory());
+                DocumentHashIndex index = new DocumentHashIndex(indexDirectory, cfg.getNumberOfIndexShards(),
+                        partitionKeyName);
+
+                Stopwatch totalWatch = Stopwatch.createStarted();
+
+                // Split the snapshot by index shard, so each shard of the index is loaded only once
+                Path stagingDirectory = Files.createTempDirectory(indexDirectory, "staging");
+                try {
+                    partitionSnapshot(Paths.get(cfg.getSnapshotFile()), stagingDirectory, index);
+
+                    for (int shard = 0; shard < index.getNumberOfShards(); shard++) {
+                        diffShard(shard, stagingDirectory, index, partitionKeyName, bulkExecutor,
+                                cfg.getNumberOfDocumentsForEachCheckpoint());
+                    }
+                } finally {
+                    for (int shard = 0; shard < index.getNumberOfShards(); shard++) {
+                        Files.deleteIfExists(stagingPath(stagingDirectory, shard));
+                    }
+                    Files.deleteIfExists(stagingDirectory);
+                }
+
+                totalWatch.stop();
+
+                // Print statistics of the refresh
+                System.out.println(
+                        "##########################################################################################");
+                System.out.println("Total diff update time in milli seconds measured by stopWatch: "
+                        + totalWatch.elapsed().toMillis());
+                System.out.println("Number of documents unchanged and skipped: " + numberOfDocumentsUnchanged);
+                System.out.println("Number of new documents imported: " + numberOfDocumentsImported);
+                System.out.println("Number of changed documents updated: " + numberOfDocumentsUpdated);
+                System.out.println("Number of documents moved to another partition key: " + numberOfDocumentsMoved);
+                System.out.println("Number of documents failed: " + numberOfDocumentsFailed);
+                System.out.println("Number of indexed documents missing from the snapshot: " + numberOfDocumentsMissing);
+                System.out.println("Total request unit consumed: " + totalRequestCharge);
+                System.out.println(
+                        "##########################################################################################");
+            }
+        }
+    }
+
+    private static void partitionSnapshot(Path snapshotFile, Path stagingDirectory, DocumentHashIndex index)
+            throws IOException {
+
+        BufferedWriter[] writers = new BufferedWriter[index.getNumberOfShards()];
+        try (BufferedReader reader = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+            for (int shard = 0; shard < writers.length; shard++) {
+                writers[shard] = Files.newBufferedWriter(stagingPath(stagingDirectory, shard), StandardCharsets.UTF_8);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                BufferedWriter writer = writers[index.shardOf(idOf(line))];
+                writer.write(line);
+                writer.newLine();
+            }
+        } finally {
+            for (BufferedWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+    }
+
+    private void diffShard(int shard, Path stagingDirectory, DocumentHashIndex index, String partitionKeyName,
+            DocumentBulkExecutor bulkExecutor, int batchSize) throws Exception {
+
+        Map<DocumentKey, FieldHashes> previousEntries = index.loadShard(shard);
+        PendingBatch batch = new PendingBatch();
+        Set<DocumentKey> failedKeys = new HashSet<>();
+
+        // All occurrences of an id land in the same shard, so this detects every duplicate in the snapshot
+        Set<DocumentKey> seenKeys = new HashSet<>();
+        Set<String> seenIds = new HashSet<>();
+
+        try (ShardWriter writer = index.openShardWriter(shard);
+                BufferedReader reader = Files.newBufferedReader(stagingPath(stagingDirectory, shard), StandardCharsets.UTF_8)) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                ObjectNode document = (ObjectNode) MAPPER.readTree(line);
+                DocumentKey key = index.keyOf(document);
+                if (!seenKeys.add(key)) {
+                    throw new IllegalArgumentException("snapshot contains the document " + key + " more than once");
+                }
+                seenIds.add(key.id);
+                FieldHashes currentHashes = index.hash(document);
+                FieldHashes previousHashes = previousEntries.remove(key);
+
+                if (previousHashes == null) {
+                    batch.documentsToImport.add(line);
+                    batch.importKeys.put(line, key);
+                    batch.pendingEntries.put(key, new FieldHashes[] { currentHashes, null });
+                } else if (previousHashes.sameAs(currentHashes)) {
+                    writer.write(key, currentHashes);
+                    numberOfDocumentsUnchanged++;
+                } else {
+                    FieldChanges changes = diff(previousHashes, currentHashes, index);
+                    batch.updateItems.add(new UpdateItem(key.id,
+                            MAPPER.treeToValue(document.get(partitionKeyName), Object.class),
+                            changes.toUpdateOperations(document)));
+                    batch.pendingEntries.put(key, new FieldHashes[] { currentHashes, previousHashes });
+                }
+
+                if (batch.documentsToImport.size() + batch.updateItems.size() >= batchSize) {
+                    flush(batch, bulkExecutor, writer, failedKeys);
+                }
+            }
+            flush(batch, bulkExecutor, writer, failedKeys);
+
+            // The new version of a moved document is imported by now, unless that failed
+            List<DocumentKey> movedKeys = movedKeys(previousEntries.keySet(), seenIds);
+            Set<String> failedIds = new HashSet<>();
+            for (DocumentKey failedKey : failedKeys) {
+                failedIds.add(failedKey.id);
+            }
+            List<DocumentKey> keysToDelete = new ArrayList<>();
+            for (DocumentKey movedKey : movedKeys) {
+                if (failedIds.contains(movedKey.id)) {
+                    writer.write(movedKey, previousEntries.get(movedKey));
+                } else {
+                    keysToDelete.add(movedKey);
+                }
+            }
+            for (int i = 0; i < keysToDelete.size(); i += batchSize) {
+                deleteMoved(keysToDelete.subList(i, Math.min(keysToDelete.size(), i + batchSize)), previousEntries,
+                        bulkExecutor, writer);
+            }
+
+            numberOfDocumentsMissing += previousEntries.size() - movedKeys.size();
+
+            // Field numbers used by the shard must be persisted before the shard itself
+            index.saveFieldDictionary();
+            writer.commit();
+        }
+
+        LOGGER.debug("Diffed shard {}", shard);
+    }
+
+    /**
+     * Finds the index entries which were left out of the snapshot because their document is now under another
+     * partition key.
+     * 
+     * @param leftoverKeys The keys of the index entries not found in the snapshot
+     * @param snapshotIds The ids found in the snapshot
+     */
+    static List<DocumentKey> movedKeys(Collection<DocumentKey> leftoverKeys, Set<String> snapshotIds) {
+        List<DocumentKey> movedKeys = new ArrayList<>();
+        for (DocumentKey key : leftoverKeys) {
+            if (snapshotIds.contains(key.id)) {
+                movedKeys.add(key);
+            }
+        }
+        return movedKeys;
+    }
+
+    /*
+     * Deletes documents under their previous partition key. Deletes which fail keep their entry, so the next run
+     * retries them.
+     */
+    private void deleteMoved(List<DocumentKey> keys, Map<DocumentKey, FieldHashes> previousEntries,
+            DocumentBulkExecutor bulkExecutor, ShardWriter writer) throws Exception {
+
+        List<Pair<String, String>> pkIdPairs = new ArrayList<>(keys.size());
+        for (DocumentKey key : keys) {
+            Object partitionKeyValue = key.partitionKeyValue();
+            if (partitionKeyValue instanceof String) {
+                pkIdPairs.add(new MutablePair<>((String) partitionKeyValue, key.id));
+            } else {
+                // The bulk delete API only takes string partition key values
+                LOGGER.warn("Cannot delete the document {} under its previous partition key, which is not a string",
+                        key);
+                writer.write(key, previousEntries.get(key));
+                numberOfDocumentsFailed++;
+            }
+        }
+        if (pkIdPairs.isEmpty()) {
+            return;
+        }
+
+        BulkDeleteResponse bulkDeleteResponse = bulkExecutor.deleteAll(pkIdPairs);
+        totalRequestCharge += bulkDeleteResponse.getTotalRequestUnitsConsumed();
+        if (bulkDeleteResponse.getNumberOfDocumentsDeleted() == pkIdPairs.size()) {
+            numberOfDocumentsMoved += pkIdPairs.size();
+            return;
+        }
+
+        // Failed deletes cannot be attributed to documents, so all of them are retried
+        numberOfDocumentsFailed += pkIdPairs.size();
+        for (Pair<String, String> pkIdPair : pkIdPairs) {
+            DocumentKey key = DocumentHashIndex.keyOf(pkIdPair.getRight(), pkIdPair.getLeft());
+            writer.write(key, previousEntries.get(key));
+        }
+    }
+
+    /**
+     * The top level fields to set and unset to turn the previous version of a document into the current one.
+     */
+    static final class FieldChanges {
+        final List<String> fieldsToSet = new ArrayList<>();
+        final List<String> fieldsToUnset = new ArrayList<>();
+
+        List<UpdateOperationBase> toUpdateOperations(ObjectNode document) throws IOException {
+            List<UpdateOperationBase> updateOperations = new ArrayList<>();
+            for (String fieldName : fieldsToUnset) {
+                updateOperations.add(new UnsetUpdateOperation(fieldName));
+            }
+            for (String fieldName : fieldsToSet) {
+                updateOperations.add(new SetUpdateOperation<>(fieldName,
+                        MAPPER.treeToValue(document.get(fieldName), Object.class)));
+            }
+            return updateOperations;
+        }
+    }
+
+    /*
+     * Turns the difference between two versions of a document into set and unset operations on top level fields.
+     */
+    static FieldChanges diff(FieldHashes previousHashes, FieldHashes currentHashes, DocumentHashIndex index) {
+
+        FieldChanges changes = new FieldChanges();
+        int i = 0;
+        int j = 0;
+        while (i < previousHashes.fieldNumbers.length || j < currentHashes.fieldNumbers.length) {
+
+            if (j == currentHashes.fieldNumbers.length
+                    || (i < previousHashes.fieldNumbers.length && previousHashes.fieldNumbers[i] < currentHashes.fieldNumbers[j])) {
+                // Removed field
+                changes.fieldsToUnset.add(index.fieldNameOf(previousHashes.fieldNumbers[i]));
+                i++;
+            } else if (i == previousHashes.fieldNumbers.length
+                    || currentHashes.fieldNumbers[j] < previousHashes.fieldNumbers[i]) {
+                // Added field
+                changes.fieldsToSet.add(index.fieldNameOf(currentHashes.fieldNumbers[j]));
+                j++;
+            } else {
+                if (previousHashes.hashes[i] != currentHashes.hashes[j]) {
+                    // Changed field
+                    changes.fieldsToSet.add(index.fieldNameOf(currentHashes.fieldNumbers[j]));
+                }
+                i++;
+                j++;
+            }
+        }
+        return changes;
+    }
+
+    private static DocumentKey keyOf(UpdateItem updateItem) {
+        return DocumentHashIndex.keyOf(updateItem.getId(), updateItem.getPartitionKeyValue());
+    }
+
+    private void flush(PendingBatch batch, DocumentBulkExecutor bulkExecutor, ShardWriter writer,
+            Set<DocumentKey> failedKeys) throws Exception {
+
+        Set<DocumentKey> batchFailedKeys = new HashSet<>();
+
+        if (!batch.documentsToImport.isEmpty()) {
+            BulkImportResponse bulkImportResponse = bulkExecutor.importAll(batch.documentsToImport, true, true, null);
+            numberOfDocumentsImported += bulkImportResponse.getNumberOfDocumentsImported();
+            totalRequestCharge += bulkImportResponse.getTotalRequestUnitsConsumed();
+
+            Set<DocumentKey> failedImportKeys = new HashSet<>();
+            for (BulkImportFailure eachBulkImportFailure : bulkImportResponse.getFailedImports()) {
+                for (String document : eachBulkImportFailure.getDocumentsFailedToImport()) {
+                    DocumentKey key = batch.importKeys.get(document);
+                    if (key != null) {
+                        failedImportKeys.add(key);
+                    }
+                }
+            }
+
+            // If failures cannot be attributed to documents, none of the batch is considered up to date
+            if (bulkImportResponse.getNumberOfDocumentsImported() + failedImportKeys.size()
+                    < batch.documentsToImport.size()) {
+                failedImportKeys.addAll(batch.importKeys.values());
+            }
+            batchFailedKeys.addAll(failedImportKeys);
+        }
+
+        if (!batch.updateItems.isEmpty()) {
+            BulkUpdateResponse bulkUpdateResponse = bulkExecutor.updateAll(batch.updateItems, null);
+            numberOfDocumentsUpdated += bulkUpdateResponse.getNumberOfDocumentsUpdated();
+            totalRequestCharge += bulkUpdateResponse.getTotalRequestUnitsConsumed();
+
+            Set<DocumentKey> failedUpdateKeys = new HashSet<>();
+            for (BulkUpdateFailure eachBulkUpdateFailure : bulkUpdateResponse.getFailedUpdates()) {
+                for (UpdateItem updateItem : eachBulkUpdateFailure.getFailedUpdateItems()) {
+                    failedUpdateKeys.add(keyOf(updateItem));
+                }
+            }
+
+            if (bulkUpdateResponse.getNumberOfDocumentsUpdated() + failedUpdateKeys.size() < batch.updateItems.size()) {
+                for (UpdateItem updateItem : batch.updateItems) {
+                    failedUpdateKeys.add(keyOf(updateItem));
+                }
+            }
+            batchFailedKeys.addAll(failedUpdateKeys);
+        }
+
+        numberOfDocumentsFailed += batchFailedKeys.size();
+        failedKeys.addAll(batchFailedKeys);
+
+        // Failed documents keep their previous entry, or none if they were new
+        for (Map.Entry<DocumentKey, FieldHashes[]> entry : batch.pendingEntries.entrySet()) {
+            FieldHashes[] versions = entry.getValue();
+            FieldHashes hashesToKeep = batchFailedKeys.contains(entry.getKey()) ? versions[1] : versions[0];
+            if (hashesToKeep != null) {
+                writer.write(entry.getKey(), hashesToKeep);
+            }
+        }
+
+        batch.documentsToImport.clear();
+        batch.importKeys.clear();
+        batch.updateItems.clear();
+        batch.pendingEntries.clear();
+    }
+
+    /*
+     * Reads the id of a document without building its tree.
+     */
+    private static String idOf(String document) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(document)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("document is not a JSON object: " + document);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (fieldName.equals("id")) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+        }
+        throw new IllegalArgumentException("document has no id: " + document);
+    }
+
+    private static Path stagingPath(Path stagingDirectory, int shard) {
+        return stagingDirectory.resolve(String.format("shard-%05d.json", shard));
+    }
+
+    /*
+     * Documents waiting for the next bulk call, with their current and previous field hashes.
+     */
+    private static class PendingBatch {
+        final List<String> documentsToImport = new ArrayList<>();
+        final Map<String, DocumentKey> importKeys = new HashMap<>();
+        final List<UpdateItem> updateItems = new ArrayList<>();
+        final Map<DocumentKey, FieldHashes[]> pendingEntries = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.deadletter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.ExecutorCallEvent;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.HistogramLog;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.LatencyRecorder;
+import com.microsoft.azure.documentdb.DocumentClient;
+import com.microsoft.azure.documentdb.DocumentCollection;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkUpdateResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor.Builder;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateItem;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateOperationBase;
+
+/**
+ * Streams the segments written by {@link DeadLetterWriter} back through the bulk executor.
+ * 
+ * Segments are read one record at a time and replayed in batches of -numberOfDocumentsForEachCheckpoint, documents
+ * with importAll as upserts, since some of them may have made it in before the original call failed, and update
+ * items with updateAll. Records which fail again, or cannot be parsed, are written to new segments in the same
+ * directory and each replayed segment is deleted once all of its records are accounted for, so the operation can
+ * be rerun until the directory is empty. Only segments present when the replay starts are read.
+ * 
+ * Re-spilled records carry the index of the replay batch rather than their original checkpoint index.
+ */
+public class DeadLetterReplayer {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterReplayer.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private int batchIndex;
+    private long numberOfDocumentsImported;
+    private long numberOfDocumentsUpdated;
+    private long numberOfRecordsRespilled;
+    private double totalRequestCharge;
+
+    public void executeReplay(CmdLineConfiguration cfg) throws Exception {
+        Preconditions.checkArgument(cfg.getDeadLetterDirectory() != null,
+                "-deadLetterDirectory is required for the replay operation");
+
+        Path directory = Paths.get(cfg.getDeadLetterDirectory());
+        List<Path> segments = listSegments(directory);
+        if (segments.isEmpty()) {
+            System.out.println("No dead letter segments found in " + directory);
+            return;
+        }
+
+        try (DocumentClient client = Utilities.documentClientFrom(cfg)) {
+
+            // Set client's retry options high for initialization
+            client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(120);
+            client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(100);
+
+            // This assumes database and collection already exist
+            String collectionLink = String.format("/dbs/%s/colls/%s", cfg.getDatabaseId(), cfg.getCollectionId());
+            DocumentCollection collection = client.readCollection(collectionLink, null).getResource();
+
+            int offerThroughput = Utilities.getOfferThroughput(client, collection);
+
+            Builder bulkExecutorBuilder = DocumentBulkExecutor.builder().from(client, cfg.getDatabaseId(),
+                    cfg.getCollectionId(), collection.getPartitionKey(), offerThroughput);
+
+            // Records which fail again go to new segments alongside the ones being replayed
+            try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build();
+                    HistogramLog histogramLog = HistogramLog.openIfSpecified(cfg.getLatencyHistogramLog());
+                    DeadLetterWriter deadLetterWriter = new DeadLetterWriter(directory,
+                            cfg.getDeadLetterSegmentSizeInMB())) {
+
+                // Set retries to 0 to pass control to bulk executor
+                client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(0);
+                client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(0);
+
+                LatencyRecorder importLatency = new LatencyRecorder("importAll");
+                LatencyRecorder updateLatency = new LatencyRecorder("updateAll");
+                Stopwatch totalWatch = Stopwatch.createStarted();
+
+                int batchSize = cfg.getNumberOfDocumentsForEachCheckpoint();
+                List<String> documents = new ArrayList<>(batchSize);
+                List<UpdateItem> updateItems = new ArrayList<>(batchSize);
+                List<String> unparseableRecords = new ArrayList<>();
+
+                for (Path segment : segments) {
+                    try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                        String record;
+                        while ((record = reader.readLine()) != null) {
+                            if (record.isEmpty()) {
+                                continue;
+                            }
+                            try {
+                                readRecord(record, documents, updateItems);
+                            } catch (IOException | RuntimeException e) {
+                                LOGGER.warn("Cannot replay dead letter record in {}: {}", segment, e.getMessage());
+                                unparseableRecords.add(record);
+                            }
+
+                            if (documents.size() >= batchSize) {
+                                replayDocuments(bulkExecutor, documents, deadLetterWriter, importLatency);
+                            }
+                            if (updateItems.size() >= batchSize) {
+                                replayUpdateItems(bulkExecutor, updateItems, deadLetterWriter, updateLatency);
+                            }
+                        }
+                    }
+
+                    // Flush what is left so that every record of the segment is either applied or re-spilled
+                    // before the segment is deleted
+                    if (!documents.isEmpty()) {
+                        replayDocuments(bulkExecutor, documents, deadLetterWriter, importLatency);
+                    }
+                    if (!updateItems.isEmpty()) {
+                        replayUpdateItems(bulkExecutor, updateItems, deadLetterWriter, updateLatency);
+                    }
+                    if (!unparseableRecords.isEmpty()) {
+                        deadLetterWriter.appendRecords(unparseableRecords);
+                        numberOfRecordsRespilled += unparseableRecords.size();
+                        unparseableRecords.clear();
+                    }
+                    Files.delete(segment);
+
+                    if (histogramLog != null) {
+                        histogramLog.append(importLatency, updateLatency);
+                    }
+                    LOGGER.info("Replayed dead letter segment {}", segment);
+                }
+                totalWatch.stop();
+
+                System.out.println(
+                        "##########################################################################################");
+                System.out.println("Number of dead letter segments replayed: " + segments.size());
+                System.out.println("Total replay time in milli seconds measured by stopWatch: "
+                        + totalWatch.elapsed().toMillis());
+                System.out.println("Total Number of documents upserted: " + numberOfDocumentsImported);
+                System.out.println("Total Number of documents updated: " + numberOfDocumentsUpdated);
+                System.out.println("Total Number of records written back to dead letter directory: "
+                        + numberOfRecordsRespilled);
+                System.out.println("Total request unit consumed: " + totalRequestCharge);
+                System.out.println("Average #Records/second: " + (numberOfDocumentsImported + numberOfDocumentsUpdated)
+                        / (totalWatch.elapsed().toMillis() * 0.001));
+                importLatency.print();
+                updateLatency.print();
+                System.out.println(
+                        "##########################################################################################");
+            }
+        }
+    }
+
+    private void replayDocuments(DocumentBulkExecutor bulkExecutor, List<String> documents,
+            DeadLetterWriter deadLetterWriter, LatencyRecorder latency) throws Exception {
+        ExecutorCallEvent executorCallEvent = new ExecutorCallEvent("replayImport", documents.size());
+        executorCallEvent.begin();
+        long startTime = System.nanoTime();
+        BulkImportResponse bulkImportResponse = bulkExecutor.importAll(documents, true, true, null);
+        latency.recordSince(startTime);
+        executorCallEvent.setResult(bulkImportResponse.getNumberOfDocumentsImported(),
+                bulkImportResponse.getTotalRequestUnitsConsumed());
+        executorCallEvent.commit();
+
+        numberOfDocumentsImported += bulkImportResponse.getNumberOfDocumentsImported();
+        totalRequestCharge += bulkImportResponse.getTotalRequestUnitsConsumed();
+        if (bulkImportResponse.getNumberOfDocumentsImported() != documents.size()) {
+            int numberOfDocumentsRespilled = deadLetterWriter.append(bulkImportResponse, batchIndex);
+            numberOfRecordsRespilled += numberOfDocumentsRespilled;
+            checkAccountedFor(bulkImportResponse.getNumberOfDocumentsImported() + numberOfDocumentsRespilled,
+                    documents.size());
+        }
+        batchIndex++;
+        documents.clear();
+    }
+
+    private void replayUpdateItems(DocumentBulkExecutor bulkExecutor, List<UpdateItem> updateItems,
+            DeadLetterWriter deadLetterWriter, LatencyRecorder latency) throws Exception {
+        ExecutorCallEvent executorCallEvent = new ExecutorCallEvent("replayUpdate", updateItems.size());
+        executorCallEvent.begin();
+        long startTime = System.nanoTime();
+        BulkUpdateResponse bulkUpdateResponse = bulkExecutor.updateAll(updateItems, null);
+        latency.recordSince(startTime);
+        executorCallEvent.setResult(bulkUpdateResponse.getNumberOfDocumentsUpdated(),
+                bulkUpdateResponse.getTotalRequestUnitsConsumed());
+        executorCallEvent.commit();
+
+        numberOfDocumentsUpdated += bulkUpdateResponse.getNumberOfDocumentsUpdated();
+        totalRequestCharge += bulkUpdateResponse.getTotalRequestUnitsConsumed();
+        if (bulkUpdateResponse.getNumberOfDocumentsUpdated() != updateItems.size()) {
+            int numberOfUpdateItemsRespilled = deadLetterWriter.append(bulkUpdateResponse, batchIndex);
+            numberOfRecordsRespilled += numberOfUpdateItemsRespilled;
+            checkAccountedFor(bulkUpdateResponse.getNumberOfDocumentsUpdated() + numberOfUpdateItemsRespilled,
+                    updateItems.size());
+        }
+        batchIndex++;
+        updateItems.clear();
+    }
+
+    /*
+     * Records the bulk executor neither applied nor reported as failed cannot be re-spilled, so the replay stops before
+     * the segment holding them is deleted.
+     */
+    private void checkAccountedFor(long numberOfRecordsAccountedFor, int numberOfRecords) {
+        if (numberOfRecordsAccountedFor != numberOfRecords) {
+            throw new IllegalStateException(String.format(
+                    "%d of %d records of replay batch %d were neither applied nor reported as failed",
+                    numberOfRecords - numberOfRecordsAccountedFor, numberOfRecords, batchIndex));
+        }
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                DeadLetterWriter.SEGMENT_PREFIX + "*" + DeadLetterWriter.SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Parses a record written by {@link DeadLetterWriter} into the document or update item to replay.
+     */
+    static void readRecord(String record, List<String> documents, List<UpdateItem> updateItems) throws IOException {
+        JsonNode node = MAPPER.readTree(record);
+        String type = node.path("type").asText();
+        if (type.equals("import")) {
+            documents.add(node.get("document").toString());
+        } else if (type.equals("update")) {
+            updateItems.add(toUpdateItem(node));
+        } else {
+            throw new IllegalArgumentException("unknown record type " + type);
+        }
+    }
+
+    private static UpdateItem toUpdateItem(JsonNode record) throws IOException {
+        String id = record.get("id").asText();
+        Object partitionKeyValue = MAPPER.treeToValue(record.get("partitionKeyValue"), Object.class);
+
+        List<UpdateOperationBase> updateOperations = new ArrayList<>();
+        for (JsonNode operation : record.get("updateOperations")) {
+            updateOperations.add(UpdateOperations.fromJson(operation));
+        }
+        return new UpdateItem(id, partitionKeyValue, updateOperations);
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.deadletter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportFailure;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkUpdateFailure;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkUpdateResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateItem;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateOperationBase;
+
+/**
+ * Appends documents and update items which the bulk executor failed to process to segmented spill files, so that a
+ * bulk run can carry on and the failures can be replayed later by {@link DeadLetterReplayer}.
+ * 
+ * Each segment is a file of JSON lines, one per failed document or update item, along with the exception type and
+ * checkpoint index of the failure:
+ * 
+ * <pre>
+ * {"type":"import","exception":"...","checkpoint":3,"document":{...}}
+ * {"type":"update","exception":"...","checkpoint":3,"id":"...","partitionKeyValue":...,"updateOperations":[...]}
+ * </pre>
+ * 
+ * Update operations are written in the form described by {@link UpdateOperations}, which must have created them.
+ * 
+ * A new segment is started when the current one exceeds the segment size. Segment names sort in creation order.
+ * Instances are thread safe.
+ */
+public class DeadLetterWriter implements Closeable {
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".ndjson";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path directory;
+    private final long segmentSizeInBytes;
+    private final long runId = System.currentTimeMillis();
+
+    private BufferedWriter segmentWriter;
+    private int segmentSequence;
+    private long segmentSize;
+    private long numberOfRecords;
+
+    /**
+     * Creates a dead letter writer, or returns null if no directory is specified.
+     * 
+     * @param directory The dead letter directory, may be null
+     * @param segmentSizeInMB The size after which a new segment is started
+     * @return The dead letter writer, or null
+     * @throws IOException if the directory cannot be created
+     */
+    public static DeadLetterWriter openIfSpecified(String directory, int segmentSizeInMB) throws IOException {
+        return directory == null ? null : new DeadLetterWriter(java.nio.file.Paths.get(directory), segmentSizeInMB);
+    }
+
+    public DeadLetterWriter(Path directory, int segmentSizeInMB) throws IOException {
+        this.directory = directory;
+        this.segmentSizeInBytes = segmentSizeInMB * 1024L * 1024L;
+
+        Files.createDirectories(directory);
+    }
+
+    public synchronized long getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    /**
+     * Spills the failed and bad input documents of a bulk import response.
+     * 
+     * @param bulkImportResponse The response of the failed call
+     * @param checkpoint The checkpoint index of the call
+     * @return The number of documents spilled
+     * @throws IOException if the spill file cannot be written
+     */
+    public synchronized int append(BulkImportResponse bulkImportResponse, int checkpoint) throws IOException {
+        int count = 0;
+        for (BulkImportFailure eachBulkImportFailure : bulkImportResponse.getFailedImports()) {
+            count += appendDocuments(eachBulkImportFailure.getDocumentsFailedToImport(),
+                    eachBulkImportFailure.getBulkImportFailureException().getClass().getName(), checkpoint);
+        }
+        for (Object badInputDocument : bulkImportResponse.getBadInputDocuments()) {
+            String document = badInputDocument instanceof String
+                    ? (String) badInputDocument : MAPPER.writeValueAsString(badInputDocument);
+            appendRecord(importRecord(document, "BadInputDocument", checkpoint));
+            count++;
+        }
+        flush();
+        return count;
+    }
+
+    /**
+     * Spills the failed update items of a bulk update response.
+     * 
+     * @param bulkUpdateResponse The response of the failed call
+     * @param checkpoint The checkpoint index of the call
+     * @return The number of update items spilled
+     * @throws IOException if the spill file cannot be written
+     */
+    public synchronized int append(BulkUpdateResponse bulkUpdateResponse, int checkpoint) throws IOException {
+        int count = 0;
+        for (BulkUpdateFailure eachBulkUpdateFailure : bulkUpdateResponse.getFailedUpdates()) {
+            String exceptionType = eachBulkUpdateFailure.getBulkUpdateFailureException().getClass().getName();
+            for (UpdateItem updateItem : eachBulkUpdateFailure.getFailedUpdateItems()) {
+                appendRecord(updateRecord(updateItem, exceptionType, checkpoint));
+                count++;
+            }
+        }
+        flush();
+        return count;
+    }
+
+    /**
+     * Spills documents which failed to import.
+     * 
+     * @param documents The JSON documents
+     * @param exceptionType The type of the exception the documents failed with
+     * @param checkpoint The checkpoint index of the documents
+     * @return The number of documents spilled
+     * @throws IOException if the spill file cannot be written
+     */
+    public synchronized int appendDocuments(Collection<String> documents, String exceptionType, int checkpoint)
+            throws IOException {
+        for (String document : documents) {
+            appendRecord(importRecord(document, exceptionType, checkpoint));
+        }
+        flush();
+        return documents.size();
+    }
+
+    /**
+     * Spills update items which failed to apply.
+     * 
+     * @param updateItems The update items
+     * @param exceptionType The type of the exception the update items failed with
+     * @param checkpoint The checkpoint index of the update items
+     * @return The number of update items spilled
+     * @throws IOException if the spill file cannot be written
+     */
+    public synchronized int appendUpdateItems(Collection<UpdateItem> updateItems, String exceptionType, int checkpoint)
+            throws IOException {
+        for (UpdateItem updateItem : updateItems) {
+            appendRecord(updateRecord(updateItem, exceptionType, checkpoint));
+        }
+        flush();
+        return updateItems.size();
+    }
+
+    /**
+     * Carries records which could not be replayed over to the current segment unchanged.
+     * 
+     * @param records The JSON lines to carry over
+     * @throws IOException if the spill file cannot be written
+     */
+    synchronized void appendRecords(Collection<String> records) throws IOException {
+        for (String record : records) {
+            appendRecord(record);
+        }
+        flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (segmentWriter != null) {
+            segmentWriter.close();
+            segmentWriter = null;
+        }
+    }
+
+    private static String importRecord(String document, String exceptionType, int checkpoint)
+            throws JsonProcessingException {
+        // The document is already JSON, so it is embedded as is rather than parsed and written again
+        return "{\"type\":\"import\",\"exception\":" + MAPPER.writeValueAsString(exceptionType)
+                + ",\"checkpoint\":" + checkpoint
+                + ",\"document\":" + document + "}";
+    }
+
+    private static String updateRecord(UpdateItem updateItem, String exceptionType, int checkpoint)
+            throws JsonProcessingException {
+        ArrayNode updateOperations = MAPPER.createArrayNode();
+        for (UpdateOperationBase updateOperation : updateItem.getUpdateOperations()) {
+            updateOperations.add(UpdateOperations.toJson(updateOperation));
+        }
+
+        return "{\"type\":\"update\",\"exception\":" + MAPPER.writeValueAsString(exceptionType)
+                + ",\"checkpoint\":" + checkpoint
+                + ",\"id\":" + MAPPER.writeValueAsString(updateItem.getId())
+                + ",\"partitionKeyValue\":" + MAPPER.writeValueAsString(updateItem.getPartitionKeyValue())
+                + ",\"updateOperations\":" + MAPPER.writeValueAsString(updateOperations) + "}";
+    }
+
+    private void appendRecord(String record) throws IOException {
+        if (segmentWriter == null || segmentSize >= segmentSizeInBytes) {
+            close();
+            Path segmentPath = directory.resolve(String.format("%s%d-%05d%s", SEGMENT_PREFIX, runId,
+                    segmentSequence++, SEGMENT_SUFFIX));
+            segmentWriter = Files.newBufferedWriter(segmentPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+            segmentSize = 0;
+        }
+
+        segmentWriter.write(record);
+        segmentWriter.newLine();
+        segmentSize += record.length() + 1;
+        numberOfRecords++;
+    }
+
+    private void flush() throws IOException {
+        if (segmentWriter != null) {
+            segmentWriter.flush();
+        }
+    }
+}
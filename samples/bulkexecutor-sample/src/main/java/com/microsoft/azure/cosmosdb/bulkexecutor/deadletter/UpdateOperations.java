@@ -0,0 +1,204 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.deadletter;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.MapMaker;
+import com.microsoft.azure.documentdb.bulkexecutor.IncUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.PushUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.RemoveUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.SetUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.UnsetUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateOperationBase;
+
+/**
+ * Creates bulk executor update operations which can be written to and read back from a dead letter directory.
+ * 
+ * The bulk executor's operation classes do not expose their type, field and value, so each operation created here is
+ * described by this class and its description is what {@link DeadLetterWriter} writes:
+ * 
+ * <pre>
+ * {"type":"set","field":"f0","value":"UpdatedDocValue"}
+ * {"type":"inc","field":"count","value":1,"valueType":"long"}
+ * </pre>
+ * 
+ * The Java type of a numeric value is recorded in valueType, so that an operation is replayed with the same type.
+ * Update items whose operations were not created here cannot be dead lettered.
+ */
+public final class UpdateOperations {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Operations are looked up by identity and dropped once the bulk executor no longer references them
+    private static final ConcurrentMap<UpdateOperationBase, Description> DESCRIPTIONS = new MapMaker().weakKeys()
+            .makeMap();
+
+    private UpdateOperations() {
+    }
+
+    public static <T> SetUpdateOperation<T> set(String field, T value) {
+        return describe(new SetUpdateOperation<>(field, value), "set", field, value);
+    }
+
+    public static UnsetUpdateOperation unset(String field) {
+        return describe(new UnsetUpdateOperation(field), "unset", field, null);
+    }
+
+    public static <T extends Number> IncUpdateOperation<T> inc(String field, T value) {
+        return describe(new IncUpdateOperation<>(field, value), "inc", field, value);
+    }
+
+    public static PushUpdateOperation push(String field, Object... values) {
+        return describe(new PushUpdateOperation(field, values), "push", field, values);
+    }
+
+    public static <T> RemoveUpdateOperation<T> remove(String field, T value) {
+        return describe(new RemoveUpdateOperation<>(field, value), "remove", field, value);
+    }
+
+    /**
+     * Writes the description of an operation created by this class.
+     * 
+     * @throws IllegalArgumentException if the operation was not created by this class
+     */
+    static ObjectNode toJson(UpdateOperationBase operation) {
+        Description description = DESCRIPTIONS.get(operation);
+        if (description == null) {
+            throw new IllegalArgumentException("update operation " + operation.getClass().getName()
+                    + " was not created through UpdateOperations and cannot be dead lettered");
+        }
+
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("type", description.type);
+        node.put("field", description.field);
+        if (!description.type.equals("unset")) {
+            node.set("value", MAPPER.valueToTree(description.value));
+            String valueType = valueTypeOf(description.value);
+            if (valueType != null) {
+                node.put("valueType", valueType);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Rebuilds an operation from its description.
+     * 
+     * @throws IllegalArgumentException if the description is incomplete or of an unknown type
+     */
+    static UpdateOperationBase fromJson(JsonNode node) throws IOException {
+        JsonNode type = node.get("type");
+        JsonNode field = node.get("field");
+        if (type == null || field == null) {
+            throw new IllegalArgumentException("update operation has no type or field: " + node);
+        }
+        if (type.asText().equals("unset")) {
+            return unset(field.asText());
+        }
+
+        JsonNode value = node.get("value");
+        if (value == null) {
+            throw new IllegalArgumentException("update operation has no value: " + node);
+        }
+        switch (type.asText()) {
+        case "set":
+            return set(field.asText(), readValue(value, node.path("valueType").asText(null)));
+        case "inc":
+            Object increment = readValue(value, node.path("valueType").asText(null));
+            if (!(increment instanceof Number)) {
+                throw new IllegalArgumentException("increment is not a number: " + node);
+            }
+            return inc(field.asText(), (Number) increment);
+        case "push":
+            return push(field.asText(), MAPPER.treeToValue(value, Object[].class));
+        case "remove":
+            return remove(field.asText(), readValue(value, node.path("valueType").asText(null)));
+        default:
+            throw new IllegalArgumentException("unsupported update operation type " + type.asText());
+        }
+    }
+
+    private static <T extends UpdateOperationBase> T describe(T operation, String type, String field, Object value) {
+        DESCRIPTIONS.put(operation, new Description(type, field, value));
+        return operation;
+    }
+
+    private static String valueTypeOf(Object value) {
+        if (value instanceof Integer) {
+            return "int";
+        } else if (value instanceof Long) {
+            return "long";
+        } else if (value instanceof Double) {
+            return "double";
+        } else if (value instanceof Float) {
+            return "float";
+        } else if (value instanceof Short) {
+            return "short";
+        } else if (value instanceof Byte) {
+            return "byte";
+        }
+        return null;
+    }
+
+    private static Object readValue(JsonNode value, String valueType) throws IOException {
+        if (valueType == null) {
+            return MAPPER.treeToValue(value, Object.class);
+        }
+        if (!value.isNumber()) {
+            throw new IllegalArgumentException("value " + value + " is not a " + valueType);
+        }
+        switch (valueType) {
+        case "int":
+            return value.intValue();
+        case "long":
+            return value.longValue();
+        case "double":
+            return value.doubleValue();
+        case "float":
+            return value.floatValue();
+        case "short":
+            return value.shortValue();
+        case "byte":
+            return (byte) value.intValue();
+        default:
+            throw new IllegalArgumentException("unsupported value type " + valueType);
+        }
+    }
+
+    private static class Description {
+        final String type;
+        final String field;
+        final Object value;
+
+        Description(String type, String field, Object value) {
+            this.type = type;
+            this.field = field;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event for the documents of a checkpoint which failed with the same exception type.
+ */
+@Name("com.microsoft.azure.cosmosdb.bulkexecutor.Failure")
+@Label("Bulk Failure")
+@Category({ "Cosmos DB", "Bulk Executor" })
+@Description("Documents of a checkpoint which the bulk executor failed to process, by exception type")
+public class BulkFailureEvent extends Event {
+
+    @Label("Operation")
+    private final String operation;
+
+    @Label("Checkpoint Index")
+    private final int checkpointIndex;
+
+    @Label("Exception Type")
+    private final String exceptionType;
+
+    @Label("Document Count")
+    private final int documentCount;
+
+    public BulkFailureEvent(String operation, int checkpointIndex, Class<?> exceptionType, int documentCount) {
+        this.operation = operation;
+        this.checkpointIndex = checkpointIndex;
+        this.exceptionType = exceptionType.getName();
+        this.documentCount = documentCount;
+    }
+}
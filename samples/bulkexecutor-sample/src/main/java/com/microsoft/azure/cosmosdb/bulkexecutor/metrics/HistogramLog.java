@@ -0,0 +1,77 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.metrics;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import org.HdrHistogram.HistogramLogWriter;
+
+/**
+ * Appends interval histograms of {@link LatencyRecorder}s to an HdrHistogram log file.
+ * 
+ * Each interval is tagged with the name of its recorder. Logs of several runs or hosts can be merged with the
+ * HdrHistogram HistogramLogProcessor, or read back with HistogramLogReader.
+ */
+public class HistogramLog implements AutoCloseable {
+
+    private final HistogramLogWriter writer;
+
+    /**
+     * Opens a histogram log, or returns null if no path is specified. An existing file is truncated.
+     * 
+     * @param path The path of the log file, may be null
+     * @return The histogram log, or null
+     * @throws FileNotFoundException if the file cannot be created
+     */
+    public static HistogramLog openIfSpecified(String path) throws FileNotFoundException {
+        return path == null ? null : new HistogramLog(path);
+    }
+
+    public HistogramLog(String path) throws FileNotFoundException {
+        long now = System.currentTimeMillis();
+
+        writer = new HistogramLogWriter(new File(path));
+        writer.outputLogFormatVersion();
+        writer.outputComment("Latencies in micro seconds");
+        writer.outputStartTime(now);
+        writer.setBaseTime(now);
+        writer.outputLegend();
+    }
+
+    /**
+     * Appends the latencies recorded since the previous append.
+     * 
+     * @param recorders The recorders to take interval histograms from
+     */
+    public synchronized void append(LatencyRecorder... recorders) {
+        for (LatencyRecorder recorder : recorders) {
+            writer.outputIntervalHistogram(recorder.nextIntervalHistogram());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        writer.close();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records latencies in microseconds into a high dynamic range histogram. Recording is thread safe and wait free.
+ * 
+ * Latencies are accumulated in interval histograms, which can be appended to a {@link HistogramLog} as they are taken,
+ * and are also summed up for the run summary printed by {@link #print()}.
+ */
+public class LatencyRecorder {
+
+    private final String name;
+    private final Recorder recorder = new Recorder(3);
+    private final Histogram totalHistogram = new Histogram(3);
+    private Histogram intervalHistogram;
+
+    /**
+     * @param name The name of the recorded latency, also used as tag in histogram logs
+     */
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records the latency of an operation which started at the given time and ended now.
+     * 
+     * @param startTimeInNanos The {@link System#nanoTime()} at which the operation started, or was intended to start
+     */
+    public void recordSince(long startTimeInNanos) {
+        recordNanos(System.nanoTime() - startTimeInNanos);
+    }
+
+    /**
+     * Records the latency of an operation.
+     * 
+     * @param latencyInNanos The latency
+     */
+    public void recordNanos(long latencyInNanos) {
+        recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyInNanos)));
+    }
+
+    /**
+     * Takes the latencies recorded since the previous call and adds them to the run total.
+     * 
+     * @return The interval histogram, only valid until the next call
+     */
+    public synchronized Histogram nextIntervalHistogram() {
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        intervalHistogram.setTag(name);
+        totalHistogram.add(intervalHistogram);
+        return intervalHistogram;
+    }
+
+    /**
+     * Prints the latency percentiles of the whole run.
+     */
+    public synchronized void print() {
+        nextIntervalHistogram();
+
+        System.out.println(name + " latency in milli seconds"
+                + " p50: " + toMillis(totalHistogram.getValueAtPercentile(50.0))
+                + ", p99: " + toMillis(totalHistogram.getValueAtPercentile(99.0))
+                + ", p99.9: " + toMillis(totalHistogram.getValueAtPercentile(99.9))
+                + ", max: " + toMillis(totalHistogram.getMaxValue())
+                + " (" + totalHistogram.getTotalCount() + " samples)");
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+}
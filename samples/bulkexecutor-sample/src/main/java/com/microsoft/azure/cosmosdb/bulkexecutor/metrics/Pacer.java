@@ -0,0 +1,91 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces operations at a target rate, on a fixed schedule.
+ * 
+ * Latencies measured from the intended start time returned by {@link #acquire()} rather than from the actual start
+ * time include the time an operation waited behind a slower predecessor. This corrects for coordinated omission, where
+ * a stalled load generator stops issuing requests and so never measures the requests it should have issued.
+ */
+public class Pacer {
+
+    /**
+     * Waits for a number of nanoseconds.
+     */
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    private final long intervalInNanos;
+    private final LongSupplier nanoClock;
+    private final Sleeper sleeper;
+    private final AtomicLong numberOfAcquires = new AtomicLong();
+    private volatile long startTimeInNanos;
+
+    /**
+     * @param targetRatePerSecond The target number of operations per second, or 0 to run unpaced
+     */
+    public Pacer(double targetRatePerSecond) {
+        this(targetRatePerSecond, System::nanoTime, TimeUnit.NANOSECONDS::sleep);
+    }
+
+    Pacer(double targetRatePerSecond, LongSupplier nanoClock, Sleeper sleeper) {
+        this.intervalInNanos = targetRatePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / targetRatePerSecond) : 0;
+        this.nanoClock = nanoClock;
+        this.sleeper = sleeper;
+    }
+
+    /**
+     * Waits until the next intended start time. The schedule starts at the first call. Thread safe.
+     * 
+     * @return The intended start time in {@link System#nanoTime()} units, or the current time if unpaced
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire() throws InterruptedException {
+        if (intervalInNanos == 0) {
+            return nanoClock.getAsLong();
+        }
+
+        long sequence = numberOfAcquires.getAndIncrement();
+        if (sequence == 0) {
+            startTimeInNanos = nanoClock.getAsLong();
+        }
+        while (startTimeInNanos == 0) {
+            Thread.yield();
+        }
+
+        long intendedStartTime = startTimeInNanos + sequence * intervalInNanos;
+        long waitTime = intendedStartTime - nanoClock.getAsLong();
+        if (waitTime > 0) {
+            sleeper.sleep(waitTime);
+        }
+        return intendedStartTime;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a warm-up phase which runs before measurement starts, so that executor initialization, connection setup and
+ * JIT compilation are reported on their own rather than mixed into the steady state figures.
+ * 
+ * The phase runs a number of batches, or for a duration, whichever lasts longer. Warm-up batches are recorded here
+ * only and not in the latency recorders of the measured run.
+ */
+public class WarmupPhase {
+
+    private final int numberOfBatches;
+    private final long durationInNanos;
+    private final LatencyRecorder batchLatency;
+
+    private long initializationTimeInMillis;
+    private long startTimeInNanos;
+    private long elapsedTimeInNanos;
+    private int numberOfBatchesRun;
+    private long numberOfDocuments;
+    private double requestUnits;
+
+    /**
+     * @param operation The name of the executor call being warmed up
+     * @param numberOfBatches The minimum number of warm-up batches
+     * @param durationInSeconds The minimum duration of the warm-up phase
+     */
+    public WarmupPhase(String operation, int numberOfBatches, int durationInSeconds) {
+        this.numberOfBatches = numberOfBatches;
+        this.durationInNanos = TimeUnit.SECONDS.toNanos(durationInSeconds);
+        this.batchLatency = new LatencyRecorder(operation + " warm-up");
+    }
+
+    public boolean isEnabled() {
+        return numberOfBatches > 0 || durationInNanos > 0;
+    }
+
+    /**
+     * @param initializationTimeInMillis The time taken to build the bulk executor, which discovers the partition key
+     *            ranges and offer of the collection
+     */
+    public void setInitializationTime(long initializationTimeInMillis) {
+        this.initializationTimeInMillis = initializationTimeInMillis;
+    }
+
+    /**
+     * Tells whether another warm-up batch has to run. The phase starts at the first call.
+     * 
+     * @return true while the warm-up phase lasts
+     */
+    public boolean nextBatch() {
+        if (!isEnabled()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (startTimeInNanos == 0) {
+            startTimeInNanos = now;
+        }
+        elapsedTimeInNanos = now - startTimeInNanos;
+        return numberOfBatchesRun < numberOfBatches || elapsedTimeInNanos < durationInNanos;
+    }
+
+    /**
+     * @return The index of the current warm-up batch
+     */
+    public int getBatchIndex() {
+        return numberOfBatchesRun;
+    }
+
+    /**
+     * Records a warm-up batch which started at the given time and ended now.
+     * 
+     * @param startTimeInNanos The {@link System#nanoTime()} at which the executor call started
+     * @param numberOfDocuments The number of documents processed by the call
+     * @param requestUnits The request units consumed by the call
+     */
+    public void record(long startTimeInNanos, long numberOfDocuments, double requestUnits) {
+        batchLatency.recordSince(startTimeInNanos);
+        this.numberOfBatchesRun++;
+        this.numberOfDocuments += numberOfDocuments;
+        this.requestUnits += requestUnits;
+        this.elapsedTimeInNanos = System.nanoTime() - this.startTimeInNanos;
+    }
+
+    /**
+     * Prints the figures of the warm-up phase.
+     */
+    public void print() {
+        long elapsedTimeInMillis = TimeUnit.NANOSECONDS.toMillis(elapsedTimeInNanos);
+
+        System.out.println("Warm-up: bulk executor initialization time in milli seconds: " + initializationTimeInMillis);
+        System.out.println("Warm-up: number of batches: " + numberOfBatchesRun);
+        System.out.println("Warm-up: time in milli seconds: " + elapsedTimeInMillis);
+        System.out.println("Warm-up: number of documents: " + numberOfDocuments);
+        System.out.println("Warm-up: request unit consumed: " + requestUnits);
+        System.out.println("Warm-up: average RUs/second: " + requestUnits / (elapsedTimeInMillis * 0.001));
+        System.out.println("Warm-up: average #Documents/second: " + numberOfDocuments / (elapsedTimeInMillis * 0.001));
+        batchLatency.print();
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.orchestrator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistribution;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistributions;
+import com.microsoft.azure.documentdb.DocumentClient;
+
+public class BulkOrchestrator {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(BulkOrchestrator.class);
+
+    /**
+     * In this sample, the collections listed in a manifest are bulk imported concurrently in one process. All bulk
+     * executors share a single DocumentClient, and so a single connection pool of -maxConnectionPoolSize connections.
+     * 
+     * The manifest has one collection per line, as databaseId,collectionId[,numberOfCheckpoints]. Lines starting with
+     * '#' are ignored. Collections without a number of checkpoints use -numberOfCheckpoints.
+     * 
+     * At most -maxActiveCollections collections are in progress at a time, each holding a bulk executor. Active
+     * collections take turns: a worker imports one checkpoint of a collection then puts it at the back of the queue, so
+     * that -orchestratorWorkers workers are shared fairly whatever the size of each collection.
+     * 
+     * @param cfg Command line configuration settings passed
+     * @throws Exception
+     */
+    public void executeOrchestratedImport(CmdLineConfiguration cfg) throws Exception {
+
+        Preconditions.checkArgument(cfg.getManifest() != null, "-manifest is required for the orchestrate operation");
+        Preconditions.checkArgument(cfg.getOrchestratorWorkers() > 0, "-orchestratorWorkers must be positive");
+        Preconditions.checkArgument(cfg.getMaxActiveCollections() > 0, "-maxActiveCollections must be positive");
+
+        List<CollectionJob> jobs = loadManifest(cfg);
+        Deque<CollectionJob> pendingJobs = new ArrayDeque<>(jobs);
+        BlockingQueue<CollectionJob> readyJobs = new LinkedBlockingQueue<>();
+        CountDownLatch remainingJobs = new CountDownLatch(jobs.size());
+
+        KeyDistribution keyDistribution = KeyDistributions.fromConfiguration(cfg);
+
+        // Retries on throttling are left to the bulk executors
+        try (DocumentClient client = Utilities.documentClientFrom(cfg)) {
+
+            for (int i = 0; i < cfg.getMaxActiveCollections() && !pendingJobs.isEmpty(); i++) {
+                readyJobs.add(pendingJobs.poll());
+            }
+
+            ExecutorService workers = Executors.newFixedThreadPool(cfg.getOrchestratorWorkers());
+            Stopwatch totalWatch = Stopwatch.createStarted();
+            try {
+                for (int i = 0; i < cfg.getOrchestratorWorkers(); i++) {
+                    workers.submit(() -> {
+                        while (remainingJobs.getCount() > 0) {
+                            CollectionJob job = readyJobs.poll(100, TimeUnit.MILLISECONDS);
+                            if (job == null) {
+                                continue;
+                            }
+
+                            boolean hasMoreCheckpoints = false;
+                            try {
+                                hasMoreCheckpoints = job.runNextCheckpoint(client, cfg, keyDistribution);
+                            } catch (Throwable e) {
+                                LOGGER.error("Bulk import of {} failed", job.getName(), e);
+                                job.fail(e);
+                            } finally {
+                                if (hasMoreCheckpoints) {
+                                    readyJobs.add(job);
+                                } else {
+                                    // Release the job's executor and admit the next collection of the manifest. This
+                                    // must happen whatever failed, or the remaining jobs would never be counted down
+                                    try {
+                                        job.close();
+                                    } catch (Throwable e) {
+                                        LOGGER.warn("Failed to close the bulk executor of {}", job.getName(), e);
+                                    }
+                                    synchronized (pendingJobs) {
+                                        if (!pendingJobs.isEmpty()) {
+                                            readyJobs.add(pendingJobs.poll());
+                                        }
+                                    }
+                                    remainingJobs.countDown();
+                                }
+                            }
+                        }
+                        return null;
+                    });
+                }
+
+                remainingJobs.await();
+            } finally {
+                workers.shutdownNow();
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            totalWatch.stop();
+
+            // Print per collection and aggregate statistics
+            long totalNumberOfDocumentsImported = 0;
+            double totalRequestCharge = 0;
+
+            System.out.println(
+                    "##########################################################################################");
+            for (CollectionJob job : jobs) {
+                job.print();
+                totalNumberOfDocumentsImported += job.getNumberOfDocumentsImported();
+                totalRequestCharge += job.getTotalRequestCharge();
+            }
+            System.out.println(
+                    "##########################################################################################");
+            System.out.println("Number of collections: " + jobs.size());
+            System.out.println(
+                    "Total import time in milli seconds measured by stopWatch: " + totalWatch.elapsed().toMillis());
+            System.out.println("Total Number of documents inserted " + totalNumberOfDocumentsImported);
+            System.out.println("Total request unit consumed: " + totalRequestCharge);
+            System.out.println(
+                    "Average RUs/second:" + totalRequestCharge / (totalWatch.elapsed().toMillis() * 0.001));
+            System.out.println("Average #Inserts/second: "
+                    + totalNumberOfDocumentsImported / (totalWatch.elapsed().toMillis() * 0.001));
+            System.out.println(
+                    "##########################################################################################");
+        }
+    }
+
+    private static List<CollectionJob> loadManifest(CmdLineConfiguration cfg) throws IOException {
+        List<CollectionJob> jobs = new ArrayList<>();
+
+        for (String line : Files.readAllLines(Paths.get(cfg.getManifest()), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] columns = line.split("\\s*,\\s*");
+            if (columns.length < 2 || columns.length > 3) {
+                throw new IllegalArgumentException("invalid manifest line: " + line);
+            }
+
+            int numberOfCheckpoints = columns.length == 3 ? Integer.parseInt(columns[2]) : cfg.getNumberOfCheckpoints();
+            jobs.add(new CollectionJob(columns[0], columns[1], numberOfCheckpoints));
+        }
+        return jobs;
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.orchestrator;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.DataMigrationDocumentSource;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistribution;
+import com.microsoft.azure.documentdb.DocumentClient;
+import com.microsoft.azure.documentdb.DocumentClientException;
+import com.microsoft.azure.documentdb.DocumentCollection;
+import com.microsoft.azure.documentdb.RetryOptions;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportFailure;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
+
+/**
+ * The bulk import job of one collection of the manifest. A job is run one checkpoint at a time, by whichever
+ * orchestrator worker picks it up, and is never run by two workers at once.
+ */
+class CollectionJob {
+
+    // Same throttling retry window as the client gets for initialization in BulkImporter
+    private static final int INITIALIZATION_RETRY_WAIT_IN_SECONDS = 120;
+    private static final int INITIALIZATION_RETRY_ATTEMPTS = 100;
+
+    private final String databaseId;
+    private final String collectionId;
+    private final int numberOfCheckpoints;
+
+    private DocumentCollection collection;
+    private DocumentBulkExecutor bulkExecutor;
+    private int nextCheckpoint;
+
+    private final Stopwatch activeWatch = Stopwatch.createUnstarted();
+    private long numberOfDocumentsImported;
+    private double totalRequestCharge;
+    private String status = "pending";
+
+    CollectionJob(String databaseId, String collectionId, int numberOfCheckpoints) {
+        this.databaseId = databaseId;
+        this.collectionId = collectionId;
+        this.numberOfCheckpoints = numberOfCheckpoints;
+    }
+
+    String getName() {
+        return databaseId + "/" + collectionId;
+    }
+
+    long getNumberOfDocumentsImported() {
+        return numberOfDocumentsImported;
+    }
+
+    double getTotalRequestCharge() {
+        return totalRequestCharge;
+    }
+
+    /**
+     * Imports the next checkpoint, initializing the job's bulk executor on first use.
+     * 
+     * @return true if the job has checkpoints left
+     */
+    boolean runNextCheckpoint(DocumentClient client, CmdLineConfiguration cfg, KeyDistribution keyDistribution)
+            throws Exception {
+
+        activeWatch.start();
+        try {
+            if (bulkExecutor == null) {
+                initialize(client, cfg);
+            }
+
+            // Generate documents to import
+            long prefix = (long) nextCheckpoint * cfg.getNumberOfDocumentsForEachCheckpoint();
+            Collection<String> documents = DataMigrationDocumentSource.loadDocuments(
+                    cfg.getNumberOfDocumentsForEachCheckpoint(), collection.getPartitionKey(), prefix, keyDistribution);
+
+            BulkImportResponse bulkImportResponse = bulkExecutor.importAll(documents, false, true, null);
+            numberOfDocumentsImported += bulkImportResponse.getNumberOfDocumentsImported();
+            totalRequestCharge += bulkImportResponse.getTotalRequestUnitsConsumed();
+            nextCheckpoint++;
+
+            // As in BulkImporter, a checkpoint with failures stops the job so it can be retried with upsert enabled
+            if (bulkImportResponse.getNumberOfDocumentsImported() != documents.size()) {
+                StringBuilder failures = new StringBuilder();
+                for (BulkImportFailure eachBulkImportFailure : bulkImportResponse.getFailedImports()) {
+                    failures.append(" ").append(eachBulkImportFailure.getBulkImportFailureException().getClass().getName())
+                            .append("=").append(eachBulkImportFailure.getDocumentsFailedToImport().size());
+                }
+                status = "failed in checkpoint " + (nextCheckpoint - 1) + ":" + failures;
+                return false;
+            }
+
+            if (nextCheckpoint == numberOfCheckpoints) {
+                status = "completed";
+                return false;
+            }
+            status = "running";
+            return true;
+        } finally {
+            activeWatch.stop();
+        }
+    }
+
+    void fail(Throwable e) {
+        status = "failed: " + e.getClass().getName() + ": " + e.getMessage();
+    }
+
+    void close() {
+        if (bulkExecutor != null) {
+            bulkExecutor.close();
+            bulkExecutor = null;
+        }
+    }
+
+    void print() {
+        long activeTimeInMillis = Math.max(1, activeWatch.elapsed().toMillis());
+        System.out.println(getName() + ": " + status
+                + ", documents inserted: " + numberOfDocumentsImported
+                + ", request units: " + totalRequestCharge
+                + ", active time in milli seconds: " + activeTimeInMillis
+                + ", average RUs/second: " + totalRequestCharge / (activeTimeInMillis * 0.001)
+                + ", average #Inserts/second: " + numberOfDocumentsImported / (activeTimeInMillis * 0.001));
+    }
+
+    private void initialize(DocumentClient client, CmdLineConfiguration cfg) throws Exception {
+        // The client is shared with the jobs already importing, so its retry options stay at 0 and throttled metadata
+        // requests of this job are retried here instead
+        if(cfg.getShouldCreateCollection()) {
+            collection = retryThrottled(() -> Utilities.createEmptyCollectionIfNotExists(client, databaseId, collectionId,
+                    cfg.getPartitionKey(), cfg.getCollectionThroughput()));
+        }
+        else {
+            // This assumes database and collection already exist
+            String collectionLink = String.format("/dbs/%s/colls/%s", databaseId, collectionId);
+            collection = retryThrottled(() -> client.readCollection(collectionLink, null).getResource());
+        }
+
+        int offerThroughput = retryThrottled(() -> Utilities.getOfferThroughput(client, collection));
+
+        // Likewise, high retries are only applied to the initialization of this executor
+        RetryOptions initializationRetryOptions = new RetryOptions();
+        initializationRetryOptions.setMaxRetryWaitTimeInSeconds(INITIALIZATION_RETRY_WAIT_IN_SECONDS);
+        initializationRetryOptions.setMaxRetryAttemptsOnThrottledRequests(INITIALIZATION_RETRY_ATTEMPTS);
+
+        bulkExecutor = DocumentBulkExecutor.builder().from(client, databaseId, collectionId,
+                collection.getPartitionKey(), offerThroughput)
+                .withInitializationRetryOptions(initializationRetryOptions)
+                .build();
+    }
+
+    /*
+     * Retries a request while it is throttled, for at most INITIALIZATION_RETRY_ATTEMPTS attempts and
+     * INITIALIZATION_RETRY_WAIT_IN_SECONDS of waiting, honoring the retry delay returned by the service.
+     */
+    private static <T> T retryThrottled(Callable<T> request) throws Exception {
+        long maxWaitInMillis = TimeUnit.SECONDS.toMillis(INITIALIZATION_RETRY_WAIT_IN_SECONDS);
+        long totalWaitInMillis = 0;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return request.call();
+            } catch (Exception e) {
+                DocumentClientException throttle = throttleOf(e);
+                if (throttle == null || attempt >= INITIALIZATION_RETRY_ATTEMPTS
+                        || totalWaitInMillis >= maxWaitInMillis) {
+                    throw e;
+                }
+
+                long waitInMillis = Math.min(Math.max(1, throttle.getRetryAfterInMilliseconds()),
+                        maxWaitInMillis - totalWaitInMillis);
+                Thread.sleep(waitInMillis);
+                totalWaitInMillis += waitInMillis;
+            }
+        }
+    }
+
+    /*
+     * Finds a throttling error, which the SDK wraps in an unchecked exception for queries.
+     */
+    private static DocumentClientException throttleOf(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DocumentClientException && ((DocumentClientException) cause).getStatusCode() == 429) {
+                return (DocumentClientException) cause;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.workload;
+
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.LatencyRecorder;
+
+/**
+ * Throughput and latency statistics of one operation type of a mixed workload. Thread safe.
+ */
+public class OperationStats {
+
+    private final String operationName;
+    private final LatencyRecorder batchLatency;
+
+    private long numberOfBatches;
+    private long numberOfDocuments;
+    private long numberOfFailedDocuments;
+    private double totalRequestCharge;
+
+    public OperationStats(String operationName) {
+        this.operationName = operationName;
+        this.batchLatency = new LatencyRecorder(operationName);
+    }
+
+    public LatencyRecorder getBatchLatency() {
+        return batchLatency;
+    }
+
+    /**
+     * Records the outcome of one bulk call.
+     * 
+     * @param startTimeInNanos The time at which the call started, or was scheduled to start when paced
+     * @param documents The number of documents processed successfully
+     * @param failedDocuments The number of documents which failed
+     * @param requestCharge The request units consumed by the call
+     */
+    public void record(long startTimeInNanos, long documents, long failedDocuments, double requestCharge) {
+        batchLatency.recordSince(startTimeInNanos);
+
+        synchronized (this) {
+            numberOfBatches++;
+            numberOfDocuments += documents;
+            numberOfFailedDocuments += failedDocuments;
+            totalRequestCharge += requestCharge;
+        }
+    }
+
+    /**
+     * Prints the statistics of this operation.
+     * 
+     * @param elapsedTimeInMillis The duration of the measured run
+     */
+    public synchronized void print(long elapsedTimeInMillis) {
+        System.out.println("Operation: " + operationName);
+        System.out.println("  Number of batches: " + numberOfBatches);
+        System.out.println("  Number of documents: " + numberOfDocuments);
+        System.out.println("  Number of failed documents: " + numberOfFailedDocuments);
+        System.out.println("  Total request unit consumed: " + totalRequestCharge);
+        System.out.println("  Average RUs/second: " + totalRequestCharge / (elapsedTimeInMillis * 0.001));
+        System.out.println("  Average #Documents/second: " + numberOfDocuments / (elapsedTimeInMillis * 0.001));
+        System.out.print("  ");
+        batchLatency.print();
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.workload;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Settings of a mixed workload run, loaded from a properties file such as:
+ * 
+ * <pre>
+ * durationInSeconds=300
+ * concurrency=8
+ * batchSize=1000
+ * keySpace=1000000
+ * keySelection=uniform
+ * importWeight=50
+ * updateWeight=40
+ * deleteWeight=10
+ * targetBatchesPerSecond=0
+ * </pre>
+ * 
+ * Weights are relative, so 5/4/1 describes the same mix as 50/40/10. A targetBatchesPerSecond of 0 runs unpaced.
+ * Missing properties keep their default value, and unknown properties are rejected rather than ignored.
+ * keySelection (uniform or sequential) decides which ids each batch touches, while the partition key values of those
+ * ids follow the -keyDistribution given on the command line.
+ */
+public class WorkloadConfiguration {
+
+    private static final Set<String> PROPERTY_NAMES = ImmutableSet.of("durationInSeconds", "concurrency", "batchSize",
+            "keySpace", "keySelection", "importWeight", "updateWeight", "deleteWeight", "targetBatchesPerSecond");
+
+    private int durationInSeconds = 60;
+    private int concurrency = 4;
+    private int batchSize = 1000;
+    private long keySpace = 1000000;
+    private String keySelection = "uniform";
+    private int importWeight = 50;
+    private int updateWeight = 40;
+    private int deleteWeight = 10;
+    private double targetBatchesPerSecond = 0;
+
+    /**
+     * Loads a workload configuration.
+     * 
+     * @param path The properties file to load, or null to use the defaults
+     * @return The workload configuration
+     * @throws IOException if the file cannot be read
+     */
+    public static WorkloadConfiguration load(String path) throws IOException {
+
+        WorkloadConfiguration workloadCfg = new WorkloadConfiguration();
+        if (path == null) {
+            return workloadCfg;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+        }
+
+        for (String name : properties.stringPropertyNames()) {
+            // Workload files written before the rename would otherwise silently fall back to uniform key selection
+            Preconditions.checkArgument(!name.equals("keyDistribution"),
+                    "%s: the workload property keyDistribution was renamed keySelection, the partition key "
+                            + "distribution is set with the -keyDistribution command line option", path);
+            Preconditions.checkArgument(PROPERTY_NAMES.contains(name),
+                    "%s: unknown workload property %s, expected one of %s", path, name, PROPERTY_NAMES);
+        }
+
+        workloadCfg.durationInSeconds = Integer.parseInt(properties.getProperty("durationInSeconds",
+                Integer.toString(workloadCfg.durationInSeconds)));
+        workloadCfg.concurrency = Integer.parseInt(properties.getProperty("concurrency",
+                Integer.toString(workloadCfg.concurrency)));
+        workloadCfg.batchSize = Integer.parseInt(properties.getProperty("batchSize",
+                Integer.toString(workloadCfg.batchSize)));
+        workloadCfg.keySpace = Long.parseLong(properties.getProperty("keySpace",
+                Long.toString(workloadCfg.keySpace)));
+        workloadCfg.keySelection = properties.getProperty("keySelection", workloadCfg.keySelection);
+        workloadCfg.importWeight = Integer.parseInt(properties.getProperty("importWeight",
+                Integer.toString(workloadCfg.importWeight)));
+        workloadCfg.updateWeight = Integer.parseInt(properties.getProperty("updateWeight",
+                Integer.toString(workloadCfg.updateWeight)));
+        workloadCfg.deleteWeight = Integer.parseInt(properties.getProperty("deleteWeight",
+                Integer.toString(workloadCfg.deleteWeight)));
+
+        workloadCfg.targetBatchesPerSecond = Double.parseDouble(properties.getProperty("targetBatchesPerSecond",
+                Double.toString(workloadCfg.targetBatchesPerSecond)));
+
+        workloadCfg.validate();
+        return workloadCfg;
+    }
+
+    private void validate() {
+        Preconditions.checkArgument(durationInSeconds > 0, "durationInSeconds must be positive");
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        Preconditions.checkArgument(keySpace > 0, "keySpace must be positive");
+        Preconditions.checkArgument(importWeight >= 0 && updateWeight >= 0 && deleteWeight >= 0,
+                "operation weights cannot be negative");
+        Preconditions.checkArgument(importWeight + updateWeight + deleteWeight > 0,
+                "at least one operation weight must be positive");
+        Preconditions.checkArgument(targetBatchesPerSecond >= 0, "targetBatchesPerSecond cannot be negative");
+    }
+
+    public int getDurationInSeconds() {
+        return durationInSeconds;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getKeySpace() {
+        return keySpace;
+    }
+
+    public String getKeySelection() {
+        return keySelection;
+    }
+
+    public int getImportWeight() {
+        return importWeight;
+    }
+
+    public int getUpdateWeight() {
+        return updateWeight;
+    }
+
+    public int getDeleteWeight() {
+        return deleteWeight;
+    }
+
+    public double getTargetBatchesPerSecond() {
+        return targetBatchesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this, ToStringStyle.MULTI_LINE_STYLE);
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2017 Microsoft Corporation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.azure.cosmosdb.bulkexecutor.workload;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+import com.microsoft.azure.cosmosdb.bulkexecutor.CmdLineConfiguration;
+import com.microsoft.azure.cosmosdb.bulkexecutor.Utilities;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.DataMigrationDocumentSource;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistribution;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.KeyDistributions;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.HistogramLog;
+import com.microsoft.azure.cosmosdb.bulkexecutor.metrics.Pacer;
+import com.microsoft.azure.documentdb.DocumentClient;
+import com.microsoft.azure.documentdb.DocumentCollection;
+import com.microsoft.azure.documentdb.PartitionKeyDefinition;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkDeleteResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkImportResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.BulkUpdateResponse;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor;
+import com.microsoft.azure.documentdb.bulkexecutor.DocumentBulkExecutor.Builder;
+import com.microsoft.azure.documentdb.bulkexecutor.SetUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.UnsetUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateItem;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateOperationBase;
+
+public class WorkloadRunner {
+
+    public static final Logger LOGGER = LoggerFactory.getLogger(WorkloadRunner.class);
+
+    /**
+     * In this sample, import, update and delete batches are issued concurrently against one collection for a fixed
+     * duration. Every batch picks its operation at random according to the configured weights, and its keys from the
+     * configured key selection over [0, keySpace). Partition key values are derived from the ids with the key
+     * distribution given on the command line, following the schema in DataMigrationDocumentSource, and imports are
+     * upserts so that deleted ids can be imported again.
+     * 
+     * When a target rate is configured, batches are started on a fixed schedule shared by all workers, and latencies
+     * are measured from each batch's scheduled start to correct for coordinated omission.
+     * 
+     * @param cfg Command line configuration settings passed
+     * @throws Exception
+     */
+    public void executeWorkload(CmdLineConfiguration cfg) throws Exception {
+
+        WorkloadConfiguration workloadCfg = WorkloadConfiguration.load(cfg.getWorkloadConfig());
+        LOGGER.info("Running workload {}", workloadCfg);
+
+        try (DocumentClient client = Utilities.documentClientFrom(cfg)) {
+
+            // Set client's retry options high for initialization
+            client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(120);
+            client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(100);
+
+            DocumentCollection collection = null;
+            if(cfg.getShouldCreateCollection()) {
+                collection = Utilities.createEmptyCollectionIfNotExists(client, cfg.getDatabaseId(), cfg.getCollectionId(),
+                        cfg.getPartitionKey(), cfg.getCollectionThroughput());
+            }
+            else {
+                // This assumes database and collection already exist
+                String collectionLink = String.format("/dbs/%s/colls/%s", cfg.getDatabaseId(), cfg.getCollectionId());
+                collection = client.readCollection(collectionLink, null).getResource();
+            }
+
+            int offerThroughput = Utilities.getOfferThroughput(client, collection);
+
+            Builder bulkExecutorBuilder = DocumentBulkExecutor.builder().from(client, cfg.getDatabaseId(),
+                    cfg.getCollectionId(), collection.getPartitionKey(), offerThroughput);
+
+            // Instantiate bulk executor, which is shared by all workers
+            try (DocumentBulkExecutor bulkExecutor = bulkExecutorBuilder.build();
+                    HistogramLog histogramLog = HistogramLog.openIfSpecified(cfg.getLatencyHistogramLog())) {
+
+                // Set retries to 0 to pass control to bulk executor
+                client.getConnectionPolicy().getRetryOptions().setMaxRetryWaitTimeInSeconds(0);
+                client.getConnectionPolicy().getRetryOptions().setMaxRetryAttemptsOnThrottledRequests(0);
+
+                OperationStats importStats = new OperationStats("import");
+                OperationStats updateStats = new OperationStats("update");
+                OperationStats deleteStats = new OperationStats("delete");
+
+                KeyGenerator keyGenerator = new KeyGenerator(workloadCfg);
+                KeyDistribution keyDistribution = KeyDistributions.fromConfiguration(cfg);
+                PartitionKeyDefinition partitionKeyDefinition = collection.getPartitionKey();
+                Pacer pacer = new Pacer(workloadCfg.getTargetBatchesPerSecond());
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(workloadCfg.getDurationInSeconds());
+
+                ExecutorService workers = Executors.newFixedThreadPool(workloadCfg.getConcurrency());
+                ScheduledExecutorService histogramLogWriter = Executors.newSingleThreadScheduledExecutor();
+                if (histogramLog != null) {
+                    histogramLogWriter.scheduleAtFixedRate(() -> histogramLog.append(importStats.getBatchLatency(),
+                            updateStats.getBatchLatency(), deleteStats.getBatchLatency()), 1, 1, TimeUnit.SECONDS);
+                }
+
+                Stopwatch totalWatch = Stopwatch.createStarted();
+                try {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (int i = 0; i < workloadCfg.getConcurrency(); i++) {
+                        futures.add(workers.submit(() -> {
+                            while (System.nanoTime() < deadline) {
+                                Collection<Long> ids = keyGenerator.nextIds(workloadCfg.getBatchSize());
+                                int pick = ThreadLocalRandom.current().nextInt(workloadCfg.getImportWeight()
+                                        + workloadCfg.getUpdateWeight() + workloadCfg.getDeleteWeight());
+
+                                if (pick < workloadCfg.getImportWeight()) {
+                                    runImport(bulkExecutor, ids, partitionKeyDefinition, keyDistribution, pacer,
+                                            importStats);
+                                } else if (pick < workloadCfg.getImportWeight() + workloadCfg.getUpdateWeight()) {
+                                    runUpdate(bulkExecutor, ids, keyDistribution, pacer, updateStats);
+                                } else {
+                                    runDelete(bulkExecutor, ids, keyDistribution, pacer, deleteStats);
+                                }
+                            }
+                            return null;
+                        }));
+                    }
+
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                } finally {
+                    workers.shutdownNow();
+                    histogramLogWriter.shutdown();
+                    histogramLogWriter.awaitTermination(10, TimeUnit.SECONDS);
+                }
+                totalWatch.stop();
+
+                // Log the final, partial interval so that the log covers the whole run
+                if (histogramLog != null) {
+                    histogramLog.append(importStats.getBatchLatency(), updateStats.getBatchLatency(),
+                            deleteStats.getBatchLatency());
+                }
+
+                // Print statistics for each operation
+                System.out.println(
+                        "##########################################################################################");
+                System.out.println("Total workload time in milli seconds measured by stopWatch: "
+                        + totalWatch.elapsed().toMillis());
+                importStats.print(totalWatch.elapsed().toMillis());
+                updateStats.print(totalWatch.elapsed().toMillis());
+                deleteStats.print(totalWatch.elapsed().toMillis());
+                System.out.println(
+                        "##########################################################################################");
+            }
+        }
+    }
+
+    private static void runImport(DocumentBulkExecutor bulkExecutor, Collection<Long> ids,
+            PartitionKeyDefinition partitionKeyDefinition, KeyDistribution keyDistribution, Pacer pacer,
+            OperationStats stats) throws Exception {
+
+        Collection<String> documents = DataMigrationDocumentSource.loadDocuments(ids, partitionKeyDefinition,
+                keyDistribution);
+
+        long startTime = pacer.acquire();
+        BulkImportResponse response = bulkExecutor.importAll(documents, true, true, null);
+
+        stats.record(startTime, response.getNumberOfDocumentsImported(),
+                documents.size() - response.getNumberOfDocumentsImported(), response.getTotalRequestUnitsConsumed());
+    }
+
+    private static void runUpdate(DocumentBulkExecutor bulkExecutor, Collection<Long> ids,
+            KeyDistribution keyDistribution, Pacer pacer, OperationStats stats) throws Exception {
+
+        // Same update operations as BulkUpdater
+        List<UpdateOperationBase> updateOperations = new ArrayList<>();
+        updateOperations.add(new SetUpdateOperation<>("f0", "UpdatedDocValue"));
+        updateOperations.add(new UnsetUpdateOperation("f1"));
+
+        List<UpdateItem> updateItems = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            updateItems.add(new UpdateItem(Long.toString(id), keyDistribution.partitionKeyFor(id), updateOperations));
+        }
+
+        long startTime = pacer.acquire();
+        BulkUpdateResponse response = bulkExecutor.updateAll(updateItems, null);
+
+        stats.record(startTime, response.getNumberOfDocumentsUpdated(),
+                updateItems.size() - response.getNumberOfDocumentsUpdated(), response.getTotalRequestUnitsConsumed());
+    }
+
+    private static void runDelete(DocumentBulkExecutor bulkExecutor, Collection<Long> ids,
+            KeyDistribution keyDistribution, Pacer pacer, OperationStats stats) throws Exception {
+
+        List<Pair<String, String>> pkIdPairsToDelete = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            pkIdPairsToDelete.add(new MutablePair<String, String>(keyDistribution.partitionKeyFor(id), Long.toString(id)));
+        }
+
+        long startTime = pacer.acquire();
+        BulkDeleteResponse response = bulkExecutor.deleteAll(pkIdPairsToDelete);
+
+        stats.record(startTime, response.getNumberOfDocumentsDeleted(),
+                pkIdPairsToDelete.size() - response.getNumberOfDocumentsDeleted(),
+                response.getTotalRequestUnitsConsumed());
+    }
+
+    /*
+     * Draws distinct ids of a batch from [0, keySpace).
+     */
+    private static class KeyGenerator {
+
+        private final long keySpace;
+        private final String selection;
+        private final AtomicLong sequence = new AtomicLong();
+
+        KeyGenerator(WorkloadConfiguration workloadCfg) {
+            this.keySpace = workloadCfg.getKeySpace();
+            this.selection = workloadCfg.getKeySelection();
+
+            if (!selection.equalsIgnoreCase("uniform") && !selection.equalsIgnoreCase("sequential")) {
+                throw new IllegalArgumentException("unknown key selection " + selection);
+            }
+        }
+
+        Collection<Long> nextIds(int batchSize) {
+            int numberOfIds = (int) Math.min(batchSize, keySpace);
+            Set<Long> ids = new LinkedHashSet<>(numberOfIds * 2);
+
+            while (ids.size() < numberOfIds) {
+                long id = selection.equalsIgnoreCase("sequential")
+                        ? sequence.getAndIncrement() % keySpace
+                        : ThreadLocalRandom.current().nextLong(keySpace);
+                ids.add(id);
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Reading NDJSON files cut into segments at member and frame boundaries, and stitching the lines cut between them.
+ */
+public class CompressedDocumentSourceTest extends TestCase {
+
+    private static final int[] PARALLELISMS = { 1, 2, 3, 8 };
+
+    private Path file;
+
+    public CompressedDocumentSourceTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CompressedDocumentSourceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("documents", ".ndjson");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public void testPlainFile() throws Exception {
+        List<String> documents = CompressedFixtures.documents(2000);
+        Files.write(file, CompressedFixtures.ndjson(documents));
+        assertAllRead(documents);
+    }
+
+    public void testSingleMemberGzip() throws Exception {
+        List<String> documents = CompressedFixtures.documents(2000);
+        Files.write(file, CompressedFixtures.gzipMember(CompressedFixtures.ndjson(documents), 0));
+        assertAllRead(documents);
+    }
+
+    public void testMultiMemberGzip() throws Exception {
+        List<String> documents = CompressedFixtures.documents(5000);
+        List<byte[]> chunks = CompressedFixtures.chunks(CompressedFixtures.ndjson(documents), 8 * 1024);
+        Files.write(file, CompressedFixtures.gzip(chunks, 0));
+        assertAllRead(documents);
+    }
+
+    public void testTrailingGarbageAfterGzipIsIgnored() throws Exception {
+        List<String> documents = CompressedFixtures.documents(2000);
+        List<byte[]> chunks = CompressedFixtures.chunks(CompressedFixtures.ndjson(documents), 8 * 1024);
+        byte[] content = CompressedFixtures.gzip(chunks, 0);
+        Files.write(file, concat(content, new byte[4096]));
+        assertAllRead(documents);
+    }
+
+    public void testFalseMatchesAreSkippedByThePreviousSegment() throws Exception {
+        // Every member carries fake member headers in its extra field, so most segment starts are false matches
+        List<String> documents = CompressedFixtures.documents(3000);
+        List<byte[]> chunks = CompressedFixtures.chunks(CompressedFixtures.ndjson(documents), 4 * 1024);
+        Files.write(file, CompressedFixtures.gzip(chunks, 65535));
+        assertAllRead(documents);
+    }
+
+    public void testCorruptMemberIsRethrown() throws Exception {
+        List<String> documents = CompressedFixtures.documents(5000);
+        List<byte[]> chunks = CompressedFixtures.chunks(CompressedFixtures.ndjson(documents), 8 * 1024);
+
+        // Break the CRC of the first member in the second half of the file, where a segment always starts
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long size = CompressedFixtures.gzip(chunks, 0).length;
+        boolean corrupted = false;
+        for (byte[] chunk : chunks) {
+            byte[] member = CompressedFixtures.gzipMember(chunk, 0);
+            if (!corrupted && out.size() >= size / 2) {
+                member[member.length - 8] ^= 0x01;
+                corrupted = true;
+            }
+            out.write(member, 0, member.length);
+        }
+        Files.write(file, out.toByteArray());
+
+        for (int parallelism : PARALLELISMS) {
+            try (CompressedDocumentSource source = new CompressedDocumentSource(file, parallelism, 100)) {
+                readAll(source);
+                fail("a corrupt member must fail the import, parallelism " + parallelism);
+            } catch (ZipException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("CRC"));
+            }
+        }
+    }
+
+    public void testMultiFrameZstd() throws Exception {
+        List<String> documents = CompressedFixtures.documents(5000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        for (byte[] chunk : CompressedFixtures.chunks(CompressedFixtures.ndjson(documents), 8 * 1024)) {
+            byte[] frame = CompressedFixtures.zstdFrame(chunk);
+            out.write(frame, 0, frame.length);
+            if (i++ % 10 == 0) {
+                byte[] skippable = CompressedFixtures.zstdSkippableFrame(16);
+                out.write(skippable, 0, skippable.length);
+            }
+        }
+        Files.write(file, out.toByteArray());
+        assertAllRead(documents);
+    }
+
+    private void assertAllRead(List<String> documents) throws Exception {
+        List<String> expected = new ArrayList<>(documents);
+        Collections.sort(expected);
+        for (int parallelism : PARALLELISMS) {
+            try (CompressedDocumentSource source = new CompressedDocumentSource(file, parallelism, 100)) {
+                List<String> read = readAll(source);
+                Collections.sort(read);
+                assertEquals("parallelism " + parallelism, expected, read);
+            }
+        }
+    }
+
+    private static List<String> readAll(CompressedDocumentSource source) throws Exception {
+        List<String> documents = new ArrayList<>();
+        List<String> batch;
+        while (!(batch = source.nextBatch(500)).isEmpty()) {
+            documents.addAll(batch);
+        }
+        return documents;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
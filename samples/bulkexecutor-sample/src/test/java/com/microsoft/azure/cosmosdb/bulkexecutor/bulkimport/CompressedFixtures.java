@@ -0,0 +1,148 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Builds NDJSON content and gzip and zstd files of it for the tests of the compressed document source.
+ */
+final class CompressedFixtures {
+
+    // A gzip member header which is not followed by a valid deflate stream
+    static final byte[] FAKE_MEMBER_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private CompressedFixtures() {
+    }
+
+    static List<String> documents(int count) {
+        Random random = new Random(count);
+        List<String> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder payload = new StringBuilder();
+            for (int j = random.nextInt(200); j >= 0; j--) {
+                payload.append((char) ('a' + random.nextInt(26)));
+            }
+            documents.add("{\"id\":\"" + i + "\",\"pk\":\"" + (i % 17) + "\",\"payload\":\"" + payload + "\"}");
+        }
+        return documents;
+    }
+
+    static byte[] ndjson(List<String> documents) {
+        StringBuilder sb = new StringBuilder();
+        for (String document : documents) {
+            sb.append(document).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Cuts content into chunks at arbitrary byte offsets, so that most chunks end in the middle of a line.
+     */
+    static List<byte[]> chunks(byte[] content, int averageChunkSize) {
+        Random random = new Random(content.length);
+        List<byte[]> chunks = new ArrayList<>();
+        int offset = 0;
+        while (offset < content.length) {
+            int length = Math.min(content.length - offset, averageChunkSize / 2 + random.nextInt(averageChunkSize));
+            chunks.add(Arrays.copyOfRange(content, offset, offset + length));
+            offset += length;
+        }
+        return chunks;
+    }
+
+    /**
+     * Writes one gzip member, with an extra field of the given length filled with fake member headers.
+     */
+    static byte[] gzipMember(byte[] data, int extraLength) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x1f);
+        out.write(0x8b);
+        out.write(8);
+        out.write(extraLength > 0 ? 0x04 : 0);
+        writeIntLittleEndian(out, 0);
+        out.write(0);
+        out.write(0xff);
+        if (extraLength > 0) {
+            out.write(extraLength & 0xff);
+            out.write(extraLength >>> 8);
+            for (int i = 0; i < extraLength; i++) {
+                out.write(FAKE_MEMBER_HEADER[i % FAKE_MEMBER_HEADER.length]);
+            }
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        writeIntLittleEndian(out, (int) crc.getValue());
+        writeIntLittleEndian(out, data.length);
+        return out.toByteArray();
+    }
+
+    static byte[] gzip(List<byte[]> chunks, int extraLength) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            byte[] member = gzipMember(chunk, extraLength);
+            out.write(member, 0, member.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes one zstd frame of uncompressed blocks, which any zstd decoder reads.
+     */
+    static byte[] zstdFrame(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeIntLittleEndian(out, 0xFD2FB528);
+        // No content size, no checksum, a window of 128KB
+        out.write(0);
+        out.write(7 << 3);
+
+        int offset = 0;
+        do {
+            int length = Math.min(data.length - offset, 64 * 1024);
+            boolean last = offset + length == data.length;
+            writeBlockHeader(out, last, 0, length);
+            out.write(data, offset, length);
+            offset += length;
+        } while (offset < data.length);
+        return out.toByteArray();
+    }
+
+    static byte[] zstdSkippableFrame(int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeIntLittleEndian(out, 0x184D2A53);
+        writeIntLittleEndian(out, length);
+        for (int i = 0; i < length; i++) {
+            out.write(i);
+        }
+        return out.toByteArray();
+    }
+
+    static void writeBlockHeader(ByteArrayOutputStream out, boolean last, int type, int size) {
+        int header = (last ? 1 : 0) | (type << 1) | (size << 3);
+        out.write(header & 0xff);
+        out.write((header >>> 8) & 0xff);
+        out.write((header >>> 16) & 0xff);
+    }
+
+    static void writeIntLittleEndian(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+}
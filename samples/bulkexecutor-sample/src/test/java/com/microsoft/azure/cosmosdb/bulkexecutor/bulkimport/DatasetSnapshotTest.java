@@ -0,0 +1,161 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.microsoft.azure.documentdb.PartitionKeyDefinition;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Snapshots written by {@link DatasetSnapshot#write} are read back unchanged.
+ */
+public class DatasetSnapshotTest extends TestCase {
+
+    private static final KeyDistribution KEY_DISTRIBUTION = id -> "pk-" + (id % 3);
+
+    private Path directory;
+    private Path file;
+
+    public DatasetSnapshotTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(DatasetSnapshotTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshot");
+        file = directory.resolve("dataset.snapshot");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path path : files) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public void testRoundTrip() throws IOException {
+        // Documents of varying length, some with multi-byte characters
+        List<List<String>> written = new ArrayList<>();
+        DatasetSnapshot.write(file, 4, 5, KEY_DISTRIBUTION, prefix -> {
+            List<String> documents = new ArrayList<>();
+            for (long id = prefix; id < prefix + 5; id++) {
+                documents.add("{\"id\":\"" + id + "\",\"pk\":\"" + KEY_DISTRIBUTION.partitionKeyFor(id)
+                        + "\",\"data\":\"" + String.join("", Collections.nCopies((int) id, "\u00e9")) + "\"}");
+            }
+            written.add(documents);
+            return documents;
+        });
+
+        try (DatasetSnapshot snapshot = new DatasetSnapshot(file)) {
+            assertEquals(4, snapshot.getNumberOfCheckpoints());
+            assertEquals(5, snapshot.getNumberOfDocumentsPerCheckpoint());
+
+            for (int checkpoint = 0; checkpoint < 4; checkpoint++) {
+                assertEquals(written.get(checkpoint), snapshot.loadDocuments(checkpoint));
+
+                List<Pair<String, String>> expectedPkIdPairs = new ArrayList<>();
+                for (long id = checkpoint * 5; id < checkpoint * 5 + 5; id++) {
+                    expectedPkIdPairs.add(new MutablePair<>(KEY_DISTRIBUTION.partitionKeyFor(id), Long.toString(id)));
+                }
+                assertEquals(expectedPkIdPairs, snapshot.loadPartitionKeyIdPairs(checkpoint));
+            }
+
+            try {
+                snapshot.loadDocuments(4);
+                fail("the snapshot has no checkpoint 4");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    public void testGeneratedDocumentsMatchTheirKeys() throws Exception {
+        PartitionKeyDefinition partitionKeyDefinition = new PartitionKeyDefinition();
+        partitionKeyDefinition.setPaths(Arrays.asList("/pk"));
+        DatasetSnapshot.write(file, 3, 4, partitionKeyDefinition, KEY_DISTRIBUTION);
+
+        try (DatasetSnapshot snapshot = new DatasetSnapshot(file)) {
+            for (int checkpoint = 0; checkpoint < 3; checkpoint++) {
+                List<String> documents = snapshot.loadDocuments(checkpoint);
+                List<Pair<String, String>> pkIdPairs = snapshot.loadPartitionKeyIdPairs(checkpoint);
+                assertEquals(4, documents.size());
+                assertEquals(4, pkIdPairs.size());
+                for (int i = 0; i < documents.size(); i++) {
+                    assertTrue(documents.get(i).startsWith("{\"id\":\"" + pkIdPairs.get(i).getRight() + "\""));
+                    assertTrue(documents.get(i).endsWith(",\"pk\":\"" + pkIdPairs.get(i).getLeft() + "\"}"));
+                }
+            }
+        }
+    }
+
+    public void testCheckHolds() throws IOException {
+        DatasetSnapshot.write(file, 3, 4, KEY_DISTRIBUTION, prefix -> Collections.nCopies(4, "{}"));
+
+        try (DatasetSnapshot snapshot = new DatasetSnapshot(file)) {
+            snapshot.checkHolds(3, 4);
+            snapshot.checkHolds(2, 4);
+            try {
+                snapshot.checkHolds(3, 5);
+                fail("the checkpoints of the snapshot are smaller");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            try {
+                snapshot.checkHolds(3, 3);
+                fail("the checkpoints of the snapshot are larger");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            try {
+                snapshot.checkHolds(4, 4);
+                fail("the snapshot has fewer checkpoints");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    public void testFailedWriteKeepsPreviousSnapshot() throws IOException {
+        DatasetSnapshot.write(file, 1, 2, KEY_DISTRIBUTION, prefix -> Arrays.asList("{\"n\":1}", "{\"n\":2}"));
+
+        try {
+            DatasetSnapshot.write(file, 2, 2, KEY_DISTRIBUTION, prefix -> {
+                if (prefix > 0) {
+                    throw new IllegalStateException("generation failed");
+                }
+                return Arrays.asList("{\"n\":3}", "{\"n\":4}");
+            });
+            fail("the write should have failed");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            List<Path> paths = new ArrayList<>();
+            files.forEach(paths::add);
+            assertEquals(Collections.singletonList(file), paths);
+        }
+        try (DatasetSnapshot snapshot = new DatasetSnapshot(file)) {
+            assertEquals(Arrays.asList("{\"n\":1}", "{\"n\":2}"), snapshot.loadDocuments(0));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Parsing CSV files into documents: quoting, line breaks and typed columns.
+ */
+public class DelimitedDocumentSourceTest extends TestCase {
+
+    private Path file;
+
+    public DelimitedDocumentSourceTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(DelimitedDocumentSourceTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("documents", ".csv");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public void testQuotedFields() throws Exception {
+        write("id,pk,notes\n"
+                + "1,a,\"with, delimiter\"\n"
+                + "2,a,\"with \"\"doubled\"\" quotes\"\n"
+                + "3,a,\"with\nline break\"\n"
+                + "4,a,\"\"\n"
+                + "5,a,\n");
+
+        assertEquals(Arrays.asList(
+                "{\"id\":\"1\",\"pk\":\"a\",\"notes\":\"with, delimiter\"}",
+                "{\"id\":\"2\",\"pk\":\"a\",\"notes\":\"with \\\"doubled\\\" quotes\"}",
+                "{\"id\":\"3\",\"pk\":\"a\",\"notes\":\"with\\nline break\"}",
+                "{\"id\":\"4\",\"pk\":\"a\",\"notes\":\"\"}",
+                "{\"id\":\"5\",\"pk\":\"a\"}"), readAll(null));
+    }
+
+    public void testCrLfLineBreaks() throws Exception {
+        write("id,pk,notes\r\n1,a,first\r\n2,a,\"second\r\nrow\"\r\n\r\n3,a,third\r\n");
+
+        assertEquals(Arrays.asList(
+                "{\"id\":\"1\",\"pk\":\"a\",\"notes\":\"first\"}",
+                "{\"id\":\"2\",\"pk\":\"a\",\"notes\":\"second\\r\\nrow\"}",
+                "{\"id\":\"3\",\"pk\":\"a\",\"notes\":\"third\"}"), readAll(null));
+    }
+
+    public void testTypedColumns() throws Exception {
+        write("id,pk,count,price,active\n"
+                + "1,a,007, 1.50 ,TRUE\n"
+                + "2,a,-3,1e3,0\n"
+                + "3,a,,\"\",\n"
+                + "4,a,\" \",  ,\"\"\n");
+
+        assertEquals(Arrays.asList(
+                "{\"id\":\"1\",\"pk\":\"a\",\"count\":7,\"price\":1.5,\"active\":true}",
+                "{\"id\":\"2\",\"pk\":\"a\",\"count\":-3,\"price\":1000.0,\"active\":false}",
+                "{\"id\":\"3\",\"pk\":\"a\"}",
+                "{\"id\":\"4\",\"pk\":\"a\"}"), readAll("count:long,price:double,active:boolean"));
+    }
+
+    public void testInvalidNumbersAreRejected() throws Exception {
+        for (String value : Arrays.asList("1-2", "--1", "1.5", "NaN")) {
+            write("id,pk,count\n1,a," + value + "\n");
+            try {
+                readAll("count:long");
+                fail(value + " is not a long");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        for (String value : Arrays.asList("1..2", "1e", "Infinity", "-")) {
+            write("id,pk,price\n1,a," + value + "\n");
+            try {
+                readAll("price:double");
+                fail(value + " is not a double");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    public void testEmptyIdsAreRejected() throws Exception {
+        for (String row : Arrays.asList(",a,x", "\"\",a,x", "\"\",a")) {
+            write("id,pk,notes\n1,a,x\n" + row + "\n");
+            try {
+                readAll(null);
+                fail("empty id in " + row);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+        // Missing at the end of a short row
+        write("pk,notes,id\na,x,1\na,x\n");
+        try {
+            readAll(null);
+            fail("missing id");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testIdColumnMustBeString() throws Exception {
+        write("id,pk\n1,a\n");
+        try {
+            new DelimitedDocumentSource(file, ',', true, "id:long", "pk", "pk", null, 2, 100).close();
+            fail("the id column cannot be a long");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testQuotesInsideUnquotedFieldsAcrossChunks() throws Exception {
+        // A quote in the middle of an unquoted field does not start quoting, so the line breaks of the quoted fields
+        // below must not be taken for row ends when the file is cut into chunks
+        StringBuilder csv = new StringBuilder("id,pk,size,notes\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            csv.append(i).append(",a,5\" screen,\"first\nsecond\"\n");
+            expected.add("{\"id\":\"" + i + "\",\"pk\":\"a\",\"size\":\"5\\\" screen\",\"notes\":\"first\\nsecond\"}");
+        }
+        write(csv.toString());
+
+        Collections.sort(expected);
+        assertEquals(expected, readAll(null));
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> readAll(String columnMapping) throws Exception {
+        List<String> documents = new ArrayList<>();
+        try (DelimitedDocumentSource source = new DelimitedDocumentSource(file, ',', true, "id", "pk", "pk",
+                columnMapping, 2, 100)) {
+            List<String> batch;
+            while (!(batch = source.nextBatch(500)).isEmpty()) {
+                documents.addAll(batch);
+            }
+        }
+        Collections.sort(documents);
+        return documents;
+    }
+}
@@ -0,0 +1,394 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Several {@link FileLeaseStore}s sharing one lease directory, as the workers of a sharded import do.
+ */
+public class FileLeaseStoreTest extends TestCase {
+
+    private Path directory;
+
+    public FileLeaseStoreTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(FileLeaseStoreTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("leases");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    public void testEachCheckpointIsLeasedOnce() throws IOException {
+        FileLeaseStore first = new FileLeaseStore(directory, "first", Duration.ofMinutes(1));
+        FileLeaseStore second = new FileLeaseStore(directory, "second", Duration.ofMinutes(1));
+        FileLeaseStore third = new FileLeaseStore(directory, "third", Duration.ofMinutes(1));
+
+        FileLeaseStore.Lease firstLease = first.tryAcquire(2);
+        FileLeaseStore.Lease secondLease = second.tryAcquire(2);
+        assertNotNull(firstLease);
+        assertNotNull(secondLease);
+        assertTrue(firstLease.getCheckpoint() != secondLease.getCheckpoint());
+        assertNull(third.tryAcquire(2));
+
+        assertTrue(firstLease.renew());
+        assertTrue(secondLease.renew());
+    }
+
+    public void testExpiredLeaseIsTakenOver() throws Exception {
+        FileLeaseStore owner = new FileLeaseStore(directory, "owner", Duration.ofMillis(500));
+        FileLeaseStore other = new FileLeaseStore(directory, "other", Duration.ofMillis(500));
+
+        FileLeaseStore.Lease lease = owner.tryAcquire(1);
+        assertNotNull(lease);
+        assertNull(other.tryAcquire(1));
+
+        Thread.sleep(700);
+        FileLeaseStore.Lease takenOver = other.tryAcquire(1);
+        assertNotNull(takenOver);
+        assertEquals(0, takenOver.getCheckpoint());
+
+        // The previous owner cannot renew, complete or release the lease any more
+        assertFalse(lease.isHeld());
+        assertFalse(lease.renew());
+        try {
+            lease.complete();
+            fail("a lost lease must not be completed");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        lease.release();
+        assertFalse(owner.isCompleted(0));
+
+        assertTrue(takenOver.renew());
+        takenOver.complete();
+        assertTrue(other.isCompleted(0));
+    }
+
+    public void testTakeoverIsDetectedBeforeExpiry() throws Exception {
+        FileLeaseStore owner = new FileLeaseStore(directory, "owner", Duration.ofMinutes(1));
+        FileLeaseStore.Lease lease = owner.tryAcquire(1);
+        assertNotNull(lease);
+
+        // Another worker whose clock is far ahead sees the lease as expired
+        FileLeaseStore other = new FileLeaseStore(directory, "other", Duration.ofMillis(1));
+        Thread.sleep(10);
+        assertNotNull(other.tryAcquire(1));
+
+        assertFalse(lease.renew());
+        assertFalse(lease.isHeld());
+    }
+
+    public void testReleasedLeaseIsAvailable() throws IOException {
+        FileLeaseStore first = new FileLeaseStore(directory, "first", Duration.ofMinutes(1));
+        FileLeaseStore second = new FileLeaseStore(directory, "second", Duration.ofMinutes(1));
+
+        FileLeaseStore.Lease lease = first.tryAcquire(1);
+        assertNull(second.tryAcquire(1));
+        lease.release();
+        assertFalse(lease.renew());
+
+        FileLeaseStore.Lease secondLease = second.tryAcquire(1);
+        assertNotNull(secondLease);
+        assertTrue(secondLease.renew());
+    }
+
+    public void testCompletedCheckpointIsNotLeased() throws IOException {
+        FileLeaseStore first = new FileLeaseStore(directory, "first", Duration.ofMinutes(1));
+        FileLeaseStore second = new FileLeaseStore(directory, "second", Duration.ofMinutes(1));
+
+        FileLeaseStore.Lease lease = first.tryAcquire(1);
+        lease.complete();
+        assertTrue(second.isCompleted(0));
+        assertTrue(second.allCompleted(1));
+        assertNull(second.tryAcquire(1));
+        assertFalse(lease.renew());
+    }
+
+    public void testAttemptsAreCounted() throws Exception {
+        FileLeaseStore first = new FileLeaseStore(directory, "first", Duration.ofMillis(300));
+        FileLeaseStore second = new FileLeaseStore(directory, "second", Duration.ofMillis(300));
+
+        FileLeaseStore.Lease lease = first.tryAcquire(1);
+        assertEquals(1, lease.getAttempt());
+        lease.release();
+
+        lease = second.tryAcquire(1);
+        assertEquals(2, lease.getAttempt());
+
+        // Abandoned, as by a worker which died
+        Thread.sleep(500);
+        lease = first.tryAcquire(1);
+        assertEquals(3, lease.getAttempt());
+        lease.complete();
+    }
+
+    public void testFailedCheckpointIsNotLeased() throws IOException {
+        FileLeaseStore first = new FileLeaseStore(directory, "first", Duration.ofMinutes(1));
+        FileLeaseStore second = new FileLeaseStore(directory, "second", Duration.ofMinutes(1));
+
+        FileLeaseStore.Lease lease = first.tryAcquire(2);
+        lease.fail();
+        assertFalse(lease.isHeld());
+        assertTrue(second.isFailed(lease.getCheckpoint()));
+        assertFalse(second.isCompleted(lease.getCheckpoint()));
+
+        FileLeaseStore.Lease other = second.tryAcquire(2);
+        assertNotNull(other);
+        assertTrue(other.getCheckpoint() != lease.getCheckpoint());
+        assertFalse(second.allFinished(2));
+        other.complete();
+
+        assertNull(second.tryAcquire(2));
+        assertTrue(second.allFinished(2));
+        assertFalse(second.allCompleted(2));
+        assertEquals(Collections.singletonList(lease.getCheckpoint()), second.failedCheckpoints(2));
+    }
+
+    public void testReleasedLeaseIsAvailableAfterDelay() throws Exception {
+        FileLeaseStore first = new FileLeaseStore(directory, "first", Duration.ofMinutes(1));
+        FileLeaseStore second = new FileLeaseStore(directory, "second", Duration.ofMinutes(1));
+
+        FileLeaseStore.Lease lease = first.tryAcquire(1);
+        lease.release(Duration.ofMillis(500));
+        assertFalse(lease.isHeld());
+        assertNull(second.tryAcquire(1));
+
+        Thread.sleep(700);
+        FileLeaseStore.Lease secondLease = second.tryAcquire(1);
+        assertNotNull(secondLease);
+        assertEquals(2, secondLease.getAttempt());
+    }
+
+    public void testContendingWorkersCompleteEveryCheckpointOnce() throws Exception {
+        final int numberOfWorkers = 8;
+        final int numberOfCheckpoints = 50;
+
+        AtomicIntegerArray completions = new AtomicIntegerArray(numberOfCheckpoints);
+        Set<Integer> heldCheckpoints = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService workers = Executors.newFixedThreadPool(numberOfWorkers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numberOfWorkers; i++) {
+                FileLeaseStore store = new FileLeaseStore(directory, "worker-" + i, Duration.ofMinutes(1));
+                futures.add(workers.submit(() -> {
+                    start.await();
+                    while (!store.allCompleted(numberOfCheckpoints)) {
+                        FileLeaseStore.Lease lease = store.tryAcquire(numberOfCheckpoints);
+                        if (lease == null) {
+                            Thread.sleep(1);
+                            continue;
+                        }
+
+                        assertTrue("checkpoint " + lease.getCheckpoint() + " leased twice",
+                                heldCheckpoints.add(lease.getCheckpoint()));
+                        assertTrue(lease.renew());
+                        heldCheckpoints.remove(lease.getCheckpoint());
+
+                        // Hand some checkpoints back, as a worker does when documents fail
+                        if (completions.get(lease.getCheckpoint()) == 0 && lease.getCheckpoint() % 5 == 0
+                                && Math.random() < 0.5) {
+                            lease.release();
+                            continue;
+                        }
+                        completions.incrementAndGet(lease.getCheckpoint());
+                        lease.complete();
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        for (int checkpoint = 0; checkpoint < numberOfCheckpoints; checkpoint++) {
+            assertEquals("completions of checkpoint " + checkpoint, 1, completions.get(checkpoint));
+        }
+    }
+
+    public void testAbandonedLeasesAreTakenOverUnderContention() throws Exception {
+        final int numberOfWorkers = 6;
+        final int numberOfCheckpoints = 20;
+
+        AtomicIntegerArray completions = new AtomicIntegerArray(numberOfCheckpoints);
+        AtomicIntegerArray abandonments = new AtomicIntegerArray(numberOfCheckpoints);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService workers = Executors.newFixedThreadPool(numberOfWorkers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numberOfWorkers; i++) {
+                FileLeaseStore store = new FileLeaseStore(directory, "worker-" + i, Duration.ofMillis(200));
+                futures.add(workers.submit(() -> {
+                    start.await();
+                    while (!store.allCompleted(numberOfCheckpoints)) {
+                        FileLeaseStore.Lease lease = store.tryAcquire(numberOfCheckpoints);
+                        if (lease == null) {
+                            Thread.sleep(10);
+                            continue;
+                        }
+
+                        // Every other checkpoint is abandoned once, as by a worker which died
+                        if (lease.getCheckpoint() % 2 == 0 && abandonments.compareAndSet(lease.getCheckpoint(), 0, 1)) {
+                            continue;
+                        }
+                        completions.incrementAndGet(lease.getCheckpoint());
+                        lease.complete();
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        for (int checkpoint = 0; checkpoint < numberOfCheckpoints; checkpoint++) {
+            assertEquals("completions of checkpoint " + checkpoint, 1, completions.get(checkpoint));
+        }
+    }
+
+    public void testWorkerProcessKilledMidLease() throws Exception {
+        final int numberOfWorkers = 3;
+        final int numberOfCheckpoints = 12;
+
+        List<Process> workers = new ArrayList<>();
+        List<Path> outputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < numberOfWorkers; i++) {
+                Path output = Files.createTempFile("leaseworker", ".out");
+                outputs.add(output);
+                ProcessBuilder processBuilder = new ProcessBuilder(
+                        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"), Worker.class.getName(),
+                        directory.toString(), "worker-" + i, Integer.toString(numberOfCheckpoints), "1000", "200");
+                processBuilder.redirectErrorStream(true);
+                processBuilder.redirectOutput(output.toFile());
+                workers.add(processBuilder.start());
+            }
+
+            // Kill the first worker while it holds a lease, before it completes the checkpoint
+            long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+            while (linesStartingWith(outputs.get(0), "acquired ").isEmpty()) {
+                assertTrue("worker-0 did not acquire a lease", System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+            workers.get(0).destroyForcibly().waitFor();
+
+            for (int i = 1; i < numberOfWorkers; i++) {
+                assertTrue("worker-" + i + " did not finish", workers.get(i).waitFor(1, TimeUnit.MINUTES));
+                assertEquals("exit code of worker-" + i, 0, workers.get(i).exitValue());
+            }
+
+            int[] completions = new int[numberOfCheckpoints];
+            for (Path output : outputs) {
+                for (String line : linesStartingWith(output, "completed ")) {
+                    completions[Integer.parseInt(line.substring("completed ".length()))]++;
+                }
+            }
+            for (int checkpoint = 0; checkpoint < numberOfCheckpoints; checkpoint++) {
+                assertEquals("completions of checkpoint " + checkpoint, 1, completions[checkpoint]);
+            }
+
+            // The checkpoint of the killed worker was taken over
+            int abandonedCheckpoint = Integer.parseInt(
+                    linesStartingWith(outputs.get(0), "acquired ").get(0).substring("acquired ".length()));
+            assertFalse(linesStartingWith(outputs.get(0), "completed ").contains("completed " + abandonedCheckpoint));
+            assertTrue(new FileLeaseStore(directory, "test", Duration.ofMinutes(1)).allCompleted(numberOfCheckpoints));
+        } finally {
+            for (Process worker : workers) {
+                worker.destroyForcibly();
+            }
+            for (Path output : outputs) {
+                Files.deleteIfExists(output);
+            }
+        }
+    }
+
+    private static List<String> linesStartingWith(Path output, String prefix) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(output, StandardCharsets.UTF_8)) {
+            if (line.startsWith(prefix)) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * A worker process of {@link #testWorkerProcessKilledMidLease()}, which imports each checkpoint it leases by
+     * holding the lease for a while. Its arguments are the lease directory, the worker id, the number of checkpoints,
+     * the lease duration and the import time in milliseconds.
+     */
+    public static class Worker {
+
+        public static void main(String[] args) throws Exception {
+            int numberOfCheckpoints = Integer.parseInt(args[2]);
+            long importTimeInMillis = Long.parseLong(args[4]);
+            FileLeaseStore store = new FileLeaseStore(new File(args[0]).toPath(), args[1],
+                    Duration.ofMillis(Long.parseLong(args[3])));
+
+            while (!store.allFinished(numberOfCheckpoints)) {
+                FileLeaseStore.Lease lease = store.tryAcquire(numberOfCheckpoints);
+                if (lease == null) {
+                    Thread.sleep(20);
+                    continue;
+                }
+
+                System.out.println("acquired " + lease.getCheckpoint());
+                System.out.flush();
+                Thread.sleep(importTimeInMillis);
+                if (!lease.renew()) {
+                    continue;
+                }
+                lease.complete();
+                System.out.println("completed " + lease.getCheckpoint());
+                System.out.flush();
+            }
+        }
+    }
+}
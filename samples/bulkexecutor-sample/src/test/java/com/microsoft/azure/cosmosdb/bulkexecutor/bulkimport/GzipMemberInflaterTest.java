@@ -0,0 +1,112 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.ZipException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Scanning for and inflating single members of multi-member gzip files.
+ */
+public class GzipMemberInflaterTest extends TestCase {
+
+    private Path file;
+
+    public GzipMemberInflaterTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(GzipMemberInflaterTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("members", ".gz");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public void testMembersAreFoundAndInflatedInTurn() throws Exception {
+        byte[] first = CompressedFixtures.gzipMember("a\nb\nc".getBytes(StandardCharsets.UTF_8), 0);
+        byte[] second = CompressedFixtures.gzipMember("d\ne\n".getBytes(StandardCharsets.UTF_8), 0);
+        Files.write(file, concat(first, second));
+
+        LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        DocumentLineSink sink = new DocumentLineSink(queue);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                GzipMemberInflater inflater = new GzipMemberInflater(channel)) {
+
+            assertEquals(0, inflater.findMemberHeader(0, channel.size()));
+            assertEquals(first.length, inflater.findMemberHeader(1, channel.size()));
+            assertEquals(-1, inflater.findMemberHeader(first.length + 1, channel.size()));
+
+            assertEquals(first.length, inflater.inflateMember(0, sink));
+            assertEquals(first.length + second.length, inflater.inflateMember(first.length, sink));
+            assertEquals(-1, inflater.inflateMember(first.length + second.length, sink));
+        }
+
+        // The first line is kept back as the head of the segment, the line cut by the member boundary is joined
+        assertEquals("a", new String(sink.getHead(), StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("b", "cd", "e"), new ArrayList<>(queue));
+        assertEquals(0, sink.getTail().length);
+    }
+
+    public void testFalseMatchFailsToInflate() throws Exception {
+        byte[] member = CompressedFixtures.gzipMember("a\n".getBytes(StandardCharsets.UTF_8), 40);
+        Files.write(file, member);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                GzipMemberInflater inflater = new GzipMemberInflater(channel)) {
+
+            // The extra field of the member holds fake headers, right after the real header and its length
+            long falseMatch = inflater.findMemberHeader(1, channel.size());
+            assertEquals(12, falseMatch);
+            try {
+                inflater.inflateMember(falseMatch, new DocumentLineSink(new LinkedBlockingQueue<>()));
+                fail("a false match must not inflate");
+            } catch (ZipException e) {
+                // Expected
+            }
+
+            assertEquals(member.length, inflater.inflateMember(0, new DocumentLineSink(new LinkedBlockingQueue<>())));
+        }
+    }
+
+    public void testCorruptMemberFailsItsCheck() throws Exception {
+        byte[] member = CompressedFixtures.gzipMember("some content\n".getBytes(StandardCharsets.UTF_8), 0);
+        member[member.length - 8] ^= 0x01;
+        Files.write(file, member);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                GzipMemberInflater inflater = new GzipMemberInflater(channel)) {
+            inflater.inflateMember(0, new DocumentLineSink(new LinkedBlockingQueue<>()));
+            fail("a member with a wrong CRC must not inflate");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("CRC"));
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,127 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.MicroBatchingImporter.BatchOutcome;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport.MicroBatchingImporter.DocumentsFailedToImportException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Mapping the outcome of a coalesced bulk import call back to the submissions of the batch, with a stub bulk import.
+ */
+public class MicroBatchingImporterTest extends TestCase {
+
+    private static final String A = "{\"id\":\"a\"}";
+    private static final String B = "{\"id\":\"b\"}";
+    private static final String C = "{\"id\":\"c\"}";
+
+    private static final Exception CONFLICT = new Exception("conflict");
+
+    public MicroBatchingImporterTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(MicroBatchingImporterTest.class);
+    }
+
+    public void testFailuresMapToTheirSubmissions() throws Exception {
+        MicroBatchingImporter importer = new MicroBatchingImporter(documents -> {
+            BatchOutcome outcome = new BatchOutcome(documents.size() - 1);
+            outcome.addFailure(B, CONFLICT);
+            return outcome;
+        }, 3, Long.MAX_VALUE, 60000, 100);
+
+        CompletableFuture<Void> first = importer.submit(A);
+        CompletableFuture<Void> second = importer.submit(B);
+        CompletableFuture<Void> third = importer.submit(C);
+        importer.close();
+
+        first.get(10, TimeUnit.SECONDS);
+        assertFailed(second, Collections.singletonList(B), CONFLICT);
+        third.get(10, TimeUnit.SECONDS);
+    }
+
+    public void testIdenticalDocumentsFailOnceEach() throws Exception {
+        // The same document in two submissions, and reported as failed once
+        MicroBatchingImporter importer = new MicroBatchingImporter(documents -> {
+            BatchOutcome outcome = new BatchOutcome(documents.size() - 1);
+            outcome.addFailure(A, CONFLICT);
+            return outcome;
+        }, 3, Long.MAX_VALUE, 60000, 100);
+
+        CompletableFuture<Void> first = importer.submit(Arrays.asList(A, B));
+        CompletableFuture<Void> second = importer.submit(A);
+        importer.close();
+
+        assertFailed(first, Collections.singletonList(A), CONFLICT);
+        second.get(10, TimeUnit.SECONDS);
+    }
+
+    public void testUnaccountedDocumentsFailTheirSubmissions() throws Exception {
+        // One document is neither imported nor reported as failed
+        MicroBatchingImporter importer = new MicroBatchingImporter(documents -> {
+            BatchOutcome outcome = new BatchOutcome(documents.size() - 2);
+            outcome.addFailure(C, CONFLICT);
+            return outcome;
+        }, 3, Long.MAX_VALUE, 60000, 100);
+
+        CompletableFuture<Void> first = importer.submit(A);
+        CompletableFuture<Void> second = importer.submit(B);
+        CompletableFuture<Void> third = importer.submit(C);
+        importer.close();
+
+        assertFailed(first, Collections.singletonList(A), null);
+        assertFailed(second, Collections.singletonList(B), null);
+        assertFailed(third, Collections.singletonList(C), CONFLICT);
+    }
+
+    public void testErrorFailsTheBatchAndLaterBatchesGoOn() throws Exception {
+        int[] calls = new int[1];
+        MicroBatchingImporter importer = new MicroBatchingImporter(documents -> {
+            if (calls[0]++ == 0) {
+                throw new AssertionError("boom");
+            }
+            return new BatchOutcome(documents.size());
+        }, 1, Long.MAX_VALUE, 60000, 100);
+
+        CompletableFuture<Void> first = importer.submit(A);
+        first.handle((v, t) -> null).get(10, TimeUnit.SECONDS);
+        CompletableFuture<Void> second = importer.submit(B);
+        importer.close();
+
+        try {
+            first.get(10, TimeUnit.SECONDS);
+            fail("the batch must fail");
+        } catch (ExecutionException e) {
+            DocumentsFailedToImportException failure = (DocumentsFailedToImportException) e.getCause();
+            assertEquals(Collections.singletonList(A), failure.getFailedDocuments());
+            assertTrue(failure.getCause() instanceof AssertionError);
+        }
+        second.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void assertFailed(CompletableFuture<Void> future, List<String> failedDocuments, Exception cause)
+            throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("the submission must fail");
+        } catch (ExecutionException e) {
+            DocumentsFailedToImportException failure = (DocumentsFailedToImportException) e.getCause();
+            assertEquals(failedDocuments, failure.getFailedDocuments());
+            if (cause != null) {
+                assertSame(cause, failure.getCause());
+            } else {
+                assertTrue(failure.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.documentdb.PartitionKeyDefinition;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Serializing documents with the partition key property checked or added.
+ */
+public class PojoDocumentSerializerTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static class Order {
+        private final String id;
+        private final int customerId;
+
+        Order(String id, int customerId) {
+            this.id = id;
+            this.customerId = customerId;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getCustomerId() {
+            return customerId;
+        }
+    }
+
+    public static class Note {
+        private final String id;
+
+        Note(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    public PojoDocumentSerializerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(PojoDocumentSerializerTest.class);
+    }
+
+    public void testBeanWithPartitionKeyIsWrittenAsIs() throws Exception {
+        // An int property and a long extractor value are the same partition key
+        PojoDocumentSerializer<Order> serializer = serializer(order -> (long) order.getCustomerId());
+        assertEquals("{\"id\":\"1\",\"customerId\":42}", serializer.serialize(new Order("1", 42)));
+    }
+
+    public void testBeanWithMismatchedPartitionKeyIsRejected() {
+        PojoDocumentSerializer<Order> serializer = serializer(order -> order.getCustomerId() + 1);
+        try {
+            serializer.serialize(new Order("1", 42));
+            fail("a partition key which differs from the extracted value must be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("customerId=42"));
+        }
+    }
+
+    public void testBeanWithoutPartitionKeyGetsItAdded() throws Exception {
+        PojoDocumentSerializer<Note> serializer = serializer(note -> "c" + note.getId());
+        assertEquals(MAPPER.readTree("{\"id\":\"1\",\"customerId\":\"c1\"}"),
+                MAPPER.readTree(serializer.serialize(new Note("1"))));
+    }
+
+    public void testMapDocument() throws Exception {
+        PojoDocumentSerializer<Map<String, Object>> serializer = serializer(map -> 7);
+
+        Map<String, Object> withoutPartitionKey = new LinkedHashMap<>();
+        withoutPartitionKey.put("id", "1");
+        assertEquals(MAPPER.readTree("{\"id\":\"1\",\"customerId\":7}"),
+                MAPPER.readTree(serializer.serialize(withoutPartitionKey)));
+
+        Map<String, Object> withPartitionKey = new LinkedHashMap<>();
+        withPartitionKey.put("id", "2");
+        withPartitionKey.put("customerId", 7L);
+        assertEquals(MAPPER.readTree("{\"id\":\"2\",\"customerId\":7}"),
+                MAPPER.readTree(serializer.serialize(withPartitionKey)));
+
+        withPartitionKey.put("customerId", 8);
+        try {
+            serializer.serialize(withPartitionKey);
+            fail("a partition key which differs from the extracted value must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testNonObjectValueIsRejected() {
+        PojoDocumentSerializer<Object> serializer = serializer(value -> 1);
+        for (Object value : Arrays.asList("text", 3, Collections.singletonList("a"))) {
+            try {
+                serializer.serialize(value);
+                fail(value + " is not a JSON object");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("not to a JSON object"));
+            }
+        }
+    }
+
+    private static <T> PojoDocumentSerializer<T> serializer(Function<? super T, ?> partitionKeyExtractor) {
+        PartitionKeyDefinition partitionKeyDefinition = new PartitionKeyDefinition();
+        partitionKeyDefinition.setPaths(Collections.singletonList("/customerId"));
+        return new PojoDocumentSerializer<>(partitionKeyDefinition, partitionKeyExtractor, false);
+    }
+}
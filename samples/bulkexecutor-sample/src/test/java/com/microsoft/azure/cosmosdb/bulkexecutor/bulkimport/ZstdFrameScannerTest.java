@@ -0,0 +1,88 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkimport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Walking the frames of a zstd file from their frame and block headers.
+ */
+public class ZstdFrameScannerTest extends TestCase {
+
+    private Path file;
+
+    public ZstdFrameScannerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ZstdFrameScannerTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("frames", ".zst");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public void testFramesAreWalked() throws IOException {
+        byte[] first = CompressedFixtures.zstdFrame(new byte[100 * 1024]);
+        byte[] skippable = CompressedFixtures.zstdSkippableFrame(7);
+        byte[] second = CompressedFixtures.zstdFrame("{\"id\":\"1\"}\n".getBytes(StandardCharsets.UTF_8));
+        byte[] third = singleSegmentFrameWithChecksum();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : Arrays.asList(first, skippable, second, third)) {
+            out.write(frame, 0, frame.length);
+        }
+        Files.write(file, out.toByteArray());
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(Arrays.asList(0L, (long) first.length, (long) first.length + skippable.length,
+                    (long) first.length + skippable.length + second.length), ZstdFrameScanner.frameOffsets(channel));
+        }
+    }
+
+    public void testGarbageIsRejected() throws IOException {
+        byte[] frame = CompressedFixtures.zstdFrame("{}\n".getBytes(StandardCharsets.UTF_8));
+        byte[] content = Arrays.copyOf(frame, frame.length + 8);
+        Files.write(file, content);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ZstdFrameScanner.frameOffsets(channel);
+            fail("bytes which are not a frame must be rejected");
+        } catch (ZipException e) {
+            // Expected
+        }
+    }
+
+    /*
+     * A frame with a single segment, a one byte content size, an RLE block and a checksum.
+     */
+    private static byte[] singleSegmentFrameWithChecksum() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedFixtures.writeIntLittleEndian(out, 0xFD2FB528);
+        out.write(0x20 | 0x04);
+        out.write(200);
+        CompressedFixtures.writeBlockHeader(out, false, 1, 100);
+        out.write('\n');
+        CompressedFixtures.writeBlockHeader(out, true, 0, 100);
+        out.write(new byte[100], 0, 100);
+        CompressedFixtures.writeIntLittleEndian(out, 0x12345678);
+        return out.toByteArray();
+    }
+}
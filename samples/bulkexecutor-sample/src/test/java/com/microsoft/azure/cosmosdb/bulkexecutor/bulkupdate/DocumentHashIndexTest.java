@@ -0,0 +1,146 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.DocumentHashIndex.DocumentKey;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.DocumentHashIndex.FieldHashes;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.DocumentHashIndex.ShardWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Documents are keyed by partition key and id, and hashed per top level field.
+ */
+public class DocumentHashIndexTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private Path directory;
+
+    public DocumentHashIndexTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(DocumentHashIndexTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("hashindex");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public void testKeyIncludesPartitionKey() throws IOException {
+        DocumentHashIndex index = new DocumentHashIndex(directory, 4, "pk");
+
+        DocumentKey key = index.keyOf(document("{\"id\":\"1\",\"pk\":\"a\",\"n\":1}"));
+        assertEquals(DocumentHashIndex.keyOf("1", "a"), key);
+        assertEquals("a", key.partitionKeyValue());
+
+        assertFalse(key.equals(index.keyOf(document("{\"id\":\"1\",\"pk\":\"b\",\"n\":1}"))));
+        assertFalse(key.equals(index.keyOf(document("{\"id\":\"2\",\"pk\":\"a\",\"n\":1}"))));
+
+        // A number partition key is not the string with the same digits
+        DocumentKey numberKey = index.keyOf(document("{\"id\":\"1\",\"pk\":7}"));
+        assertEquals(DocumentHashIndex.keyOf("1", 7), numberKey);
+        assertFalse(numberKey.equals(DocumentHashIndex.keyOf("1", "7")));
+        assertEquals(7, numberKey.partitionKeyValue());
+    }
+
+    public void testKeyRequiresIdAndPartitionKey() throws IOException {
+        DocumentHashIndex index = new DocumentHashIndex(directory, 4, "pk");
+
+        try {
+            index.keyOf(document("{\"pk\":\"a\"}"));
+            fail("expected missing id to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            index.keyOf(document("{\"id\":\"1\"}"));
+            fail("expected missing partition key to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testHashIgnoresFieldOrderAndKeyFields() throws IOException {
+        DocumentHashIndex index = new DocumentHashIndex(directory, 4, "pk");
+
+        FieldHashes hashes = index.hash(document(
+                "{\"id\":\"1\",\"pk\":\"a\",\"nested\":{\"x\":1,\"y\":[1,{\"p\":true,\"q\":null}]},\"n\":2}"));
+        FieldHashes reordered = index.hash(document(
+                "{\"n\":2,\"nested\":{\"y\":[1,{\"q\":null,\"p\":true}],\"x\":1},\"pk\":\"b\",\"id\":\"2\","
+                + "\"_etag\":\"e\"}"));
+        assertTrue(hashes.sameAs(reordered));
+
+        // Array order is content
+        FieldHashes arrayReordered = index.hash(document(
+                "{\"id\":\"1\",\"pk\":\"a\",\"nested\":{\"x\":1,\"y\":[{\"p\":true,\"q\":null},1]},\"n\":2}"));
+        assertFalse(hashes.sameAs(arrayReordered));
+    }
+
+    public void testShardRoundTrip() throws IOException {
+        DocumentHashIndex index = new DocumentHashIndex(directory, 2, "pk");
+        ObjectNode first = document("{\"id\":\"1\",\"pk\":\"a\",\"n\":1}");
+        ObjectNode sameIdOtherPartition = document("{\"id\":\"1\",\"pk\":\"b\",\"s\":\"x\"}");
+        int shard = index.shardOf("1");
+
+        try (ShardWriter writer = index.openShardWriter(shard)) {
+            writer.write(index.keyOf(first), index.hash(first));
+            writer.write(index.keyOf(sameIdOtherPartition), index.hash(sameIdOtherPartition));
+            index.saveFieldDictionary();
+            writer.commit();
+        }
+
+        // A new instance reads the field dictionary back, so field numbers stay the same
+        DocumentHashIndex reopened = new DocumentHashIndex(directory, 2, "pk");
+        Map<DocumentKey, FieldHashes> entries = reopened.loadShard(shard);
+        assertEquals(2, entries.size());
+        assertTrue(entries.get(DocumentHashIndex.keyOf("1", "a")).sameAs(reopened.hash(first)));
+        assertTrue(entries.get(DocumentHashIndex.keyOf("1", "b")).sameAs(reopened.hash(sameIdOtherPartition)));
+        assertTrue(reopened.loadShard(1 - shard).isEmpty());
+    }
+
+    public void testUncommittedShardIsDiscarded() throws IOException {
+        DocumentHashIndex index = new DocumentHashIndex(directory, 1, "pk");
+        ObjectNode document = document("{\"id\":\"1\",\"pk\":\"a\"}");
+
+        try (ShardWriter writer = index.openShardWriter(0)) {
+            writer.write(index.keyOf(document), index.hash(document));
+        }
+        assertTrue(index.loadShard(0).isEmpty());
+    }
+
+    public void testRejectsDifferentNumberOfShards() throws IOException {
+        new DocumentHashIndex(directory, 2, "pk");
+        try {
+            new DocumentHashIndex(directory, 3, "pk");
+            fail("expected a different number of shards to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static ObjectNode document(String json) throws IOException {
+        return (ObjectNode) MAPPER.readTree(json);
+    }
+}
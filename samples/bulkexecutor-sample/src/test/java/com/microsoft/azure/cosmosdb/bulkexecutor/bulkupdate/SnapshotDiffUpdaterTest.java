@@ -0,0 +1,118 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.DocumentHashIndex.DocumentKey;
+import com.microsoft.azure.cosmosdb.bulkexecutor.bulkupdate.SnapshotDiffUpdater.FieldChanges;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The diff between two versions of a document, and the detection of documents whose partition key changed.
+ */
+public class SnapshotDiffUpdaterTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private Path directory;
+    private DocumentHashIndex index;
+
+    public SnapshotDiffUpdaterTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(SnapshotDiffUpdaterTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshotdiff");
+        index = new DocumentHashIndex(directory, 1, "pk");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    public void testAddedField() throws IOException {
+        FieldChanges changes = diff("{\"id\":\"1\",\"pk\":\"a\",\"n\":1}",
+                "{\"id\":\"1\",\"pk\":\"a\",\"n\":1,\"s\":\"x\"}");
+        assertEquals(Collections.singletonList("s"), changes.fieldsToSet);
+        assertTrue(changes.fieldsToUnset.isEmpty());
+    }
+
+    public void testRemovedField() throws IOException {
+        FieldChanges changes = diff("{\"id\":\"1\",\"pk\":\"a\",\"n\":1,\"s\":\"x\"}",
+                "{\"id\":\"1\",\"pk\":\"a\",\"n\":1}");
+        assertTrue(changes.fieldsToSet.isEmpty());
+        assertEquals(Collections.singletonList("s"), changes.fieldsToUnset);
+    }
+
+    public void testChangedField() throws IOException {
+        FieldChanges changes = diff("{\"id\":\"1\",\"pk\":\"a\",\"n\":1,\"nested\":{\"x\":[1,2]}}",
+                "{\"id\":\"1\",\"pk\":\"a\",\"n\":1,\"nested\":{\"x\":[1,3]}}");
+        assertEquals(Collections.singletonList("nested"), changes.fieldsToSet);
+        assertTrue(changes.fieldsToUnset.isEmpty());
+    }
+
+    public void testAddedRemovedAndChangedFields() throws IOException {
+        FieldChanges changes = diff("{\"id\":\"1\",\"pk\":\"a\",\"a\":1,\"b\":2,\"c\":3}",
+                "{\"id\":\"1\",\"pk\":\"a\",\"b\":20,\"c\":3,\"d\":4}");
+        assertEquals(new HashSet<>(Arrays.asList("b", "d")), new HashSet<>(changes.fieldsToSet));
+        assertEquals(Collections.singletonList("a"), changes.fieldsToUnset);
+    }
+
+    public void testReorderedNestedFieldsAreNoChange() throws IOException {
+        String previous = "{\"id\":\"1\",\"pk\":\"a\",\"nested\":{\"x\":1,\"y\":{\"p\":1,\"q\":2}},\"n\":1}";
+        String current = "{\"n\":1,\"pk\":\"a\",\"nested\":{\"y\":{\"q\":2,\"p\":1},\"x\":1},\"id\":\"1\"}";
+        assertTrue(index.hash(document(previous)).sameAs(index.hash(document(current))));
+
+        FieldChanges changes = diff(previous, current);
+        assertTrue(changes.fieldsToSet.isEmpty());
+        assertTrue(changes.fieldsToUnset.isEmpty());
+    }
+
+    public void testChangedPartitionKeyIsMove() throws IOException {
+        // The index holds id 1 under a and id 2 under a; the snapshot has id 1 under b and no id 2
+        DocumentKey moved = DocumentHashIndex.keyOf("1", "a");
+        DocumentKey missing = DocumentHashIndex.keyOf("2", "a");
+        DocumentKey current = index.keyOf(document("{\"id\":\"1\",\"pk\":\"b\"}"));
+        assertFalse(moved.equals(current));
+
+        List<DocumentKey> movedKeys = SnapshotDiffUpdater.movedKeys(Arrays.asList(moved, missing),
+                Collections.singleton(current.id));
+        assertEquals(Collections.singletonList(moved), movedKeys);
+        assertEquals("a", movedKeys.get(0).partitionKeyValue());
+    }
+
+    public void testNothingMovedWithoutLeftovers() {
+        assertTrue(SnapshotDiffUpdater.movedKeys(Collections.<DocumentKey> emptyList(),
+                Collections.singleton("1")).isEmpty());
+    }
+
+    private FieldChanges diff(String previous, String current) throws IOException {
+        return SnapshotDiffUpdater.diff(index.hash(document(previous)), index.hash(document(current)), index);
+    }
+
+    private static ObjectNode document(String json) throws IOException {
+        return (ObjectNode) MAPPER.readTree(json);
+    }
+}
@@ -0,0 +1,167 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.deadletter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.documentdb.bulkexecutor.UnsetUpdateOperation;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateItem;
+import com.microsoft.azure.documentdb.bulkexecutor.UpdateOperationBase;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Records written by {@link DeadLetterWriter} are read back by {@link DeadLetterReplayer} unchanged.
+ */
+public class DeadLetterRoundTripTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private Path directory;
+
+    public DeadLetterRoundTripTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(DeadLetterRoundTripTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("deadletter");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        for (Path segment : segments()) {
+            Files.delete(segment);
+        }
+        Files.delete(directory);
+    }
+
+    public void testDocumentsRoundTrip() throws IOException {
+        List<String> documents = Arrays.asList("{\"id\":\"1\",\"pk\":\"a\",\"n\":1.5}",
+                "{\"id\":\"2\",\"pk\":\"b\",\"nested\":{\"list\":[1,\"x\",null]}}");
+
+        try (DeadLetterWriter writer = new DeadLetterWriter(directory, 1)) {
+            assertEquals(2, writer.appendDocuments(documents, "java.lang.IllegalStateException", 7));
+        }
+
+        List<String> replayedDocuments = new ArrayList<>();
+        List<UpdateItem> replayedUpdateItems = new ArrayList<>();
+        for (String record : records()) {
+            DeadLetterReplayer.readRecord(record, replayedDocuments, replayedUpdateItems);
+        }
+
+        assertEquals(documents.size(), replayedDocuments.size());
+        for (int i = 0; i < documents.size(); i++) {
+            assertEquals(MAPPER.readTree(documents.get(i)), MAPPER.readTree(replayedDocuments.get(i)));
+        }
+        assertTrue(replayedUpdateItems.isEmpty());
+    }
+
+    public void testUpdateItemsRoundTrip() throws IOException {
+        List<UpdateOperationBase> updateOperations = Arrays.asList(
+                UpdateOperations.set("name", "value"),
+                UpdateOperations.set("count", 3L),
+                UpdateOperations.set("nested", Collections.singletonMap("a", Arrays.asList(1, 2))),
+                UpdateOperations.unset("obsolete"),
+                UpdateOperations.inc("integerCounter", 1),
+                UpdateOperations.inc("longCounter", 5000000000L),
+                UpdateOperations.inc("doubleCounter", 0.5),
+                UpdateOperations.push("tags", "x", "y"),
+                UpdateOperations.remove("tags", "z"));
+        List<UpdateItem> updateItems = Arrays.asList(new UpdateItem("1", "a", updateOperations),
+                new UpdateItem("2", 42, updateOperations.subList(0, 1)));
+
+        try (DeadLetterWriter writer = new DeadLetterWriter(directory, 1)) {
+            assertEquals(2, writer.appendUpdateItems(updateItems, "java.lang.IllegalStateException", 3));
+        }
+
+        List<String> replayedDocuments = new ArrayList<>();
+        List<UpdateItem> replayedUpdateItems = new ArrayList<>();
+        for (String record : records()) {
+            DeadLetterReplayer.readRecord(record, replayedDocuments, replayedUpdateItems);
+        }
+
+        assertTrue(replayedDocuments.isEmpty());
+        assertEquals(updateItems.size(), replayedUpdateItems.size());
+        for (int i = 0; i < updateItems.size(); i++) {
+            UpdateItem expected = updateItems.get(i);
+            UpdateItem actual = replayedUpdateItems.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getPartitionKeyValue(), actual.getPartitionKeyValue());
+            assertEquals(expected.getUpdateOperations().size(), actual.getUpdateOperations().size());
+            for (int j = 0; j < expected.getUpdateOperations().size(); j++) {
+                // The description holds the operation type, field, value and numeric type
+                assertEquals(UpdateOperations.toJson(expected.getUpdateOperations().get(j)),
+                        UpdateOperations.toJson(actual.getUpdateOperations().get(j)));
+            }
+        }
+
+        // Numeric types survive, an increment by 1 is not replayed as 1.0
+        String record = records().get(0);
+        assertTrue(record, record.contains("{\"type\":\"inc\",\"field\":\"integerCounter\",\"value\":1,\"valueType\":\"int\"}"));
+        assertTrue(record, record.contains("{\"type\":\"inc\",\"field\":\"longCounter\",\"value\":5000000000,\"valueType\":\"long\"}"));
+        assertTrue(record, record.contains("{\"type\":\"set\",\"field\":\"count\",\"value\":3,\"valueType\":\"long\"}"));
+    }
+
+    public void testReplayedUpdateItemsCanBeSpilledAgain() throws IOException {
+        List<UpdateOperationBase> updateOperations = Arrays.asList(UpdateOperations.inc("counter", 2));
+        try (DeadLetterWriter writer = new DeadLetterWriter(directory, 1)) {
+            writer.appendUpdateItems(Arrays.asList(new UpdateItem("1", "a", updateOperations)), "Failure", 0);
+        }
+        String record = records().get(0);
+
+        List<UpdateItem> replayedUpdateItems = new ArrayList<>();
+        DeadLetterReplayer.readRecord(record, new ArrayList<>(), replayedUpdateItems);
+        for (Path segment : segments()) {
+            Files.delete(segment);
+        }
+
+        try (DeadLetterWriter writer = new DeadLetterWriter(directory, 1)) {
+            writer.appendUpdateItems(replayedUpdateItems, "Failure", 0);
+        }
+        assertEquals(record, records().get(0));
+    }
+
+    public void testOperationsNotCreatedThroughUpdateOperationsAreRejected() throws IOException {
+        UpdateItem updateItem = new UpdateItem("1", "a", Arrays.<UpdateOperationBase> asList(
+                new UnsetUpdateOperation("f1")));
+        try (DeadLetterWriter writer = new DeadLetterWriter(directory, 1)) {
+            writer.appendUpdateItems(Arrays.asList(updateItem), "Failure", 0);
+            fail("an operation without a description must not be written");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private List<String> records() throws IOException {
+        List<String> records = new ArrayList<>();
+        for (Path segment : segments()) {
+            records.addAll(Files.readAllLines(segment, StandardCharsets.UTF_8));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,110 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Pacing on a fixed schedule against a fake clock, and latencies measured from the scheduled start times.
+ */
+public class PacerTest extends TestCase {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // The fake clock, which only moves when the test or the pacer sleeps
+    private long now = 1000 * MILLIS;
+    private final List<Long> sleeps = new ArrayList<>();
+
+    public PacerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(PacerTest.class);
+    }
+
+    public void testOnScheduleCallerWaitsForEachSlot() throws InterruptedException {
+        Pacer pacer = pacer(10);
+
+        assertEquals(1000 * MILLIS, pacer.acquire());
+        assertEquals(1100 * MILLIS, pacer.acquire());
+        assertEquals(1200 * MILLIS, pacer.acquire());
+        assertEquals(Arrays.asList(100 * MILLIS, 100 * MILLIS), sleeps);
+    }
+
+    public void testLateCallerGetsScheduledStartTime() throws InterruptedException {
+        Pacer pacer = pacer(10);
+
+        assertEquals(1000 * MILLIS, pacer.acquire());
+        // The first operation stalls for 350 ms, three slots go by
+        now += 350 * MILLIS;
+
+        // The missed slots are handed out at once, with their scheduled start times rather than the current time
+        assertEquals(1100 * MILLIS, pacer.acquire());
+        assertEquals(1200 * MILLIS, pacer.acquire());
+        assertEquals(1300 * MILLIS, pacer.acquire());
+        assertTrue(sleeps.isEmpty());
+
+        // Then the schedule goes on where it was
+        assertEquals(1400 * MILLIS, pacer.acquire());
+        assertEquals(Arrays.asList(50 * MILLIS), sleeps);
+    }
+
+    public void testLatencyIncludesTimeBehindStalledOperation() throws InterruptedException {
+        Pacer pacer = pacer(10);
+        LatencyRecorder recorder = new LatencyRecorder("test");
+
+        // Operations take 10 ms, except for one which stalls for 1 s
+        for (int i = 0; i < 20; i++) {
+            long startTime = pacer.acquire();
+            now += (i == 5 ? 1000 : 10) * MILLIS;
+            recorder.recordNanos(now - startTime);
+        }
+
+        // Measured from their actual start, the ten operations scheduled during the stall would take 10 ms. Measured
+        // from their scheduled start, they include the time they waited behind it: 910 ms, 820 ms and so on.
+        Histogram histogram = recorder.nextIntervalHistogram();
+        assertEquals(20, histogram.getTotalCount());
+        assertEquals(1000, histogram.getMaxValue() / 1000);
+        assertEquals(9, histogram.getCountBetweenValues(0, 10 * 1000 + 10));
+        assertEquals(820, histogram.getValueAtPercentile(90.0) / 1000);
+        assertEquals(100, histogram.getValueAtPercentile(50.0) / 1000);
+    }
+
+    public void testZeroRateDisablesPacing() throws InterruptedException {
+        Pacer pacer = pacer(0);
+
+        assertEquals(now, pacer.acquire());
+        now += 5 * MILLIS;
+        assertEquals(now, pacer.acquire());
+        assertEquals(now, pacer.acquire());
+        assertTrue(sleeps.isEmpty());
+    }
+
+    public void testRecorderAccumulatesIntervals() {
+        LatencyRecorder recorder = new LatencyRecorder("test");
+        recorder.recordNanos(3 * MILLIS);
+        recorder.recordNanos(-1);
+        assertEquals(2, recorder.nextIntervalHistogram().getTotalCount());
+
+        recorder.recordSince(System.nanoTime() - 200 * MILLIS);
+        Histogram interval = recorder.nextIntervalHistogram();
+        assertEquals(1, interval.getTotalCount());
+        assertTrue(interval.getMinValue() >= 200 * 1000 * 0.999);
+        assertEquals(0, recorder.nextIntervalHistogram().getTotalCount());
+    }
+
+    private Pacer pacer(double targetRatePerSecond) {
+        return new Pacer(targetRatePerSecond, () -> now, nanos -> {
+            sleeps.add(nanos);
+            now += nanos;
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.microsoft.azure.cosmosdb.bulkexecutor.workload;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Loading workload properties files.
+ */
+public class WorkloadConfigurationTest extends TestCase {
+
+    private Path file;
+
+    public WorkloadConfigurationTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(WorkloadConfigurationTest.class);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("workload", ".properties");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public void testPropertiesAreLoaded() throws IOException {
+        write("concurrency=2\nkeySelection=sequential\n");
+        WorkloadConfiguration workloadCfg = WorkloadConfiguration.load(file.toString());
+        assertEquals(2, workloadCfg.getConcurrency());
+        assertEquals("sequential", workloadCfg.getKeySelection());
+        assertEquals(1000, workloadCfg.getBatchSize());
+    }
+
+    public void testRenamedKeyDistributionIsRejected() throws IOException {
+        write("keyDistribution=sequential\n");
+        try {
+            WorkloadConfiguration.load(file.toString());
+            fail("keyDistribution must not be ignored");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("keySelection"));
+        }
+    }
+
+    public void testUnknownPropertyIsRejected() throws IOException {
+        write("concurency=2\n");
+        try {
+            WorkloadConfiguration.load(file.toString());
+            fail("a misspelt property must not be ignored");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("concurency"));
+        }
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}